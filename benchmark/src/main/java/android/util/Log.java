@@ -0,0 +1,15 @@
+package android.util;
+
+/**
+ * Stands in for the framework class on the JVM, for the loader sources the
+ * benchmarks compile. Only the methods those sources call are here.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.imageloader.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.imageloader.loader.DiskLruCache;
+import com.example.imageloader.loader.LoaderUtils;
+import com.example.imageloader.loader.ShardedDiskLruCache;
+
+/**
+ * Lookups running next to a writer that keeps committing, which also makes
+ * the shards compact their journals. With one shard every lookup shares the
+ * writer's lock.
+ */
+@State(Scope.Group)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DiskCacheContentionBenchmark {
+    private static final int ENTRIES = 10000;
+    private static final int VALUE_SIZE = 1024;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    private File mDirectory;
+    private ShardedDiskLruCache mCache;
+    private String[] mKeys;
+    private byte[] mValue;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("shardeddisklrucache", "");
+        mDirectory.delete();
+        mKeys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            mKeys[i] = LoaderUtils.encodeMd5("http://example.com/images/" + i + ".jpg");
+        }
+        mValue = new byte[VALUE_SIZE];
+        ThreadLocalRandom.current().nextBytes(mValue);
+        mCache = ShardedDiskLruCache.open(mDirectory, 1, 1, Long.MAX_VALUE, shards);
+        for (String key : mKeys) {
+            write(key);
+        }
+        mCache.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mCache.delete();
+        mDirectory.delete();
+    }
+
+    private void write(String key) throws IOException {
+        DiskLruCache.Editor editor = mCache.edit(key);
+        if (editor == null) {
+            return;
+        }
+        OutputStream os = editor.newOutputStream(0);
+        try {
+            os.write(mValue);
+        } finally {
+            os.close();
+        }
+        editor.commit();
+    }
+
+    private String randomKey() {
+        return mKeys[ThreadLocalRandom.current().nextInt(mKeys.length)];
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int get() throws IOException {
+        DiskLruCache.Snapshot snapshot = mCache.get(randomKey());
+        if (snapshot == null) {
+            return 0;
+        }
+        try {
+            InputStream is = snapshot.getInputStream(0);
+            return is.read(new byte[VALUE_SIZE]);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void editCommit() throws IOException {
+        write(randomKey());
+    }
+}
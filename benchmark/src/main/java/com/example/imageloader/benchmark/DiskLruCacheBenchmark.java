@@ -0,0 +1,142 @@
+package com.example.imageloader.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.imageloader.loader.ByteArrayPool;
+import com.example.imageloader.loader.DiskLruCache;
+import com.example.imageloader.loader.LoaderUtils;
+
+/**
+ * Throughput of {@link DiskLruCache} lookups and edits, and the time to open
+ * a cache with a populated journal, for caches of {@link #entries} entries.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DiskLruCacheBenchmark {
+    private static final int VALUE_SIZE = 1024;
+
+    @Param({"10000", "100000"})
+    public int entries;
+
+    private File mDirectory;
+    private DiskLruCache mCache;
+    private String[] mKeys;
+    private byte[] mValue;
+    private final ByteArrayPool mByteArrayPool = new ByteArrayPool(1024 * 1024);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("disklrucache", "");
+        mDirectory.delete();
+        mKeys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            mKeys[i] = LoaderUtils.encodeMd5("http://example.com/images/" + i + ".jpg");
+        }
+        mValue = new byte[VALUE_SIZE];
+        ThreadLocalRandom.current().nextBytes(mValue);
+        mCache = open();
+        for (String key : mKeys) {
+            write(mCache, key, mValue);
+        }
+        mCache.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mCache.delete();
+        mDirectory.delete();
+    }
+
+    private DiskLruCache open() throws IOException {
+        return DiskLruCache.open(mDirectory, 1, 1, Long.MAX_VALUE);
+    }
+
+    private static void write(DiskLruCache cache, String key, byte[] value) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        if (editor == null) {
+            // another thread is editing the same key
+            return;
+        }
+        OutputStream os = editor.newOutputStream(0);
+        try {
+            os.write(value);
+        } finally {
+            os.close();
+        }
+        editor.commit();
+    }
+
+    private String randomKey() {
+        return mKeys[ThreadLocalRandom.current().nextInt(mKeys.length)];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int get() throws IOException {
+        DiskLruCache.Snapshot snapshot = mCache.get(randomKey());
+        try {
+            InputStream is = snapshot.getInputStream(0);
+            return is.read(new byte[VALUE_SIZE]);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * A whole value read into a pooled array, the way the loader reads hits.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int readPooled() throws IOException {
+        ByteBuffer buffer = mCache.read(randomKey(), 0, mByteArrayPool);
+        mByteArrayPool.put(buffer.array());
+        return buffer.remaining();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void editCommit() throws IOException {
+        write(mCache, randomKey(), mValue);
+    }
+
+    /**
+     * Reads and replays the whole journal, like the first disk access after a
+     * process start.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public DiskLruCache openJournal() throws IOException {
+        DiskLruCache cache = open();
+        // close without trimming or deleting, the trial state stays intact
+        cache.close();
+        return cache;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.imageloader.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.example.imageloader.loader.cache.LruMemoryCache;
+import com.example.imageloader.loader.cache.MemoryCache;
+import com.example.imageloader.loader.cache.TinyLfuMemoryCache;
+
+/**
+ * Replays an access trace against the memory cache policies at several
+ * budgets and prints their hit rates. Not a JMH benchmark, hit rates do not
+ * depend on timing.
+ * <p>
+ * A trace has one access per line, the memory cache key and the size of the
+ * bitmap in KB separated by a space, lines starting with # are skipped.
+ * Without a trace file a synthetic session is replayed: every screen shows
+ * the same icons, a few avatars of a long tail and some feed photos, and now
+ * and then the user flings through a gallery of photos seen only once.
+ */
+public class HitRateSimulation {
+    private static final int[] BUDGETS_KB = {4 * 1024, 8 * 1024, 16 * 1024, 32 * 1024};
+
+    private static final class Access {
+        final String key;
+        final int sizeKb;
+
+        Access(String key, int sizeKb) {
+            this.key = key;
+            this.sizeKb = sizeKb;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Access> trace = args.length > 0 ? readTrace(args[0]) : syntheticSession(42);
+        System.out.println("accesses: " + trace.size());
+        System.out.println(String.format("%10s %10s %10s", "budget", "lru", "tinylfu"));
+        for (int budget : BUDGETS_KB) {
+            double lru = replay(new LruMemoryCache<String, Integer>(budget) {
+                @Override
+                protected int sizeOf(String key, Integer value) {
+                    return value;
+                }
+            }, trace);
+            double tinyLfu = replay(new TinyLfuMemoryCache<String, Integer>(budget) {
+                @Override
+                protected int sizeOf(String key, Integer value) {
+                    return value;
+                }
+            }, trace);
+            System.out.println(String.format("%8dMB %9.2f%% %9.2f%%", budget / 1024,
+                    lru * 100, tinyLfu * 100));
+        }
+    }
+
+    /**
+     * Looks every key up and puts it after a miss, like ImageLoader does after
+     * decoding.
+     */
+    private static double replay(MemoryCache<String, Integer> cache, List<Access> trace) {
+        int hits = 0;
+        for (Access access : trace) {
+            if (cache.get(access.key) != null) {
+                hits++;
+            } else {
+                cache.put(access.key, access.sizeKb);
+            }
+        }
+        return (double) hits / trace.size();
+    }
+
+    private static List<Access> readTrace(String path) throws IOException {
+        List<Access> trace = new ArrayList<Access>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(path), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                trace.add(new Access(parts[0], Integer.parseInt(parts[1])));
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    private static List<Access> syntheticSession(long seed) {
+        Random random = new Random(seed);
+        List<Access> trace = new ArrayList<Access>();
+        Zipf avatars = new Zipf(2000, 0.9, random);
+        Zipf photos = new Zipf(3000, 0.8, random);
+        int galleryPhoto = 0;
+        for (int screen = 0; screen < 3000; screen++) {
+            for (int i = 0; i < 20; i++) {
+                trace.add(new Access("icon/" + i, 16));
+            }
+            for (int i = 0; i < 8; i++) {
+                trace.add(new Access("avatar/" + avatars.next(), 64));
+            }
+            for (int i = 0; i < 3; i++) {
+                trace.add(new Access("photo/" + photos.next(), 768));
+            }
+            if (random.nextInt(20) == 0) {
+                // a fling through a gallery, each photo shown once
+                int count = 100 + random.nextInt(200);
+                for (int i = 0; i < count; i++) {
+                    trace.add(new Access("gallery/" + galleryPhoto++, 256));
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Draws ranks 0..n-1, rank k with a probability proportional to
+     * 1 / (k + 1)^s.
+     */
+    private static final class Zipf {
+        private final double[] mCumulative;
+        private final Random mRandom;
+
+        Zipf(int n, double s, Random random) {
+            mCumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, s);
+                mCumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                mCumulative[i] /= sum;
+            }
+            mRandom = random;
+        }
+
+        int next() {
+            int index = Arrays.binarySearch(mCumulative, mRandom.nextDouble());
+            return index >= 0 ? index : Math.min(-index - 1, mCumulative.length - 1);
+        }
+    }
+}
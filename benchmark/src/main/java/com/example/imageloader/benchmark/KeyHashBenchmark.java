@@ -0,0 +1,44 @@
+package com.example.imageloader.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.imageloader.loader.LoaderUtils;
+
+/**
+ * Cost of turning a url into a cache key, which happens on the UI thread for
+ * every load().
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeyHashBenchmark {
+    @Param({
+            "http://example.com/a.jpg",
+            "https://images.example.com/photos/2014/11/03/1234567890abcdef/large_1920x1080_q85.jpg?token=0123456789abcdef0123456789abcdef"
+    })
+    public String url;
+
+    @Benchmark
+    public String encodeMd5() {
+        return LoaderUtils.encodeMd5(url);
+    }
+
+    @Benchmark
+    public String hash128() {
+        return LoaderUtils.hash128(url);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.imageloader.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.imageloader.loader.cache.LruMemoryCache;
+import com.example.imageloader.loader.cache.MemoryCache;
+import com.example.imageloader.loader.cache.TinyLfuMemoryCache;
+
+/**
+ * Cost of a memory cache lookup, which happens on the UI thread for every
+ * load(), and of a put after a miss. See {@link HitRateSimulation} for the
+ * hit rates of the policies.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryCacheBenchmark {
+    private static final int ENTRIES = 4096;
+
+    @Param({"lru", "tinylfu"})
+    public String policy;
+
+    private MemoryCache<String, Integer> mCache;
+    private String[] mKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("lru".equals(policy)) {
+            mCache = new LruMemoryCache<String, Integer>(ENTRIES);
+        } else {
+            mCache = new TinyLfuMemoryCache<String, Integer>(ENTRIES);
+        }
+        // twice as many keys as fit, so puts evict
+        mKeys = new String[2 * ENTRIES];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = "http://example.com/images/" + i + ".jpg";
+            mCache.put(mKeys[i], i);
+        }
+    }
+
+    @Benchmark
+    public Integer get() {
+        return mCache.get(mKeys[ThreadLocalRandom.current().nextInt(mKeys.length)]);
+    }
+
+    @Benchmark
+    public Integer getOrPut() {
+        String key = mKeys[ThreadLocalRandom.current().nextInt(mKeys.length)];
+        Integer value = mCache.get(key);
+        if (value == null) {
+            mCache.put(key, 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.imageloader.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.imageloader.loader.Priority;
+import com.example.imageloader.loader.PriorityTask;
+import com.example.imageloader.loader.PriorityTaskQueue;
+import com.example.imageloader.loader.ThreadPoolManager;
+
+/**
+ * Throughput and latency of {@link ThreadPoolManager} and its
+ * {@link PriorityTaskQueue} while several threads submit at once, the way
+ * many list rows bind at the same time.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SchedulerBenchmark {
+    private static final int BATCH = 1000;
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    @State(Scope.Benchmark)
+    public static class Manager {
+        ThreadPoolManager threadPoolManager;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            threadPoolManager = new ThreadPoolManager();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Queue {
+        PriorityTaskQueue queue;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            queue = new PriorityTaskQueue();
+        }
+    }
+
+    private static class LatchTask implements PriorityTask {
+        private final CountDownLatch mLatch;
+        private final Priority mPriority;
+
+        LatchTask(CountDownLatch latch, Priority priority) {
+            mLatch = latch;
+            mPriority = priority;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void run() {
+            mLatch.countDown();
+        }
+    }
+
+    /**
+     * Submits a batch of empty tasks and waits for all of them, from four
+     * threads at once.
+     */
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void submitBatch(Manager manager) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            manager.threadPoolManager.addTask(new LatchTask(latch, PRIORITIES[i % PRIORITIES.length]));
+        }
+        latch.await();
+    }
+
+    /**
+     * Time from submitting one task until it runs, with three other threads
+     * submitting concurrently.
+     */
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void submitLatency(Manager manager) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        manager.threadPoolManager.addTask(new LatchTask(latch, Priority.VISIBLE));
+        latch.await();
+    }
+
+    /**
+     * Raw offer/poll pairs on the queue under contention, without the pool.
+     */
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Runnable queueOfferPoll(Queue queue) {
+        queue.queue.offer(new LatchTask(null, Priority.VISIBLE));
+        return queue.queue.poll();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.imageloader.loader;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * The bitmaps currently shown by a view or about to be, by memory cache key.
+ * They are kept out of the memory cache's LRU so it never evicts and reuses
+ * a bitmap on screen, and lookups find them here instead of decoding them a
+ * second time. Once the last view releases a bitmap it goes back to the LRU.
+ * <p>
+ * Bitmaps are only weakly referenced. A view that is dropped without its
+ * request being cancelled keeps its count up forever, but its bitmap can
+ * still be collected and the entry is then purged.
+ */
+class ActiveResources {
+    private final HashMap<String, ResourceRef> mResources = new HashMap<String, ResourceRef>();
+    private final ReferenceQueue<Bitmap> mQueue = new ReferenceQueue<Bitmap>();
+
+    private static class ResourceRef extends WeakReference<Bitmap> {
+        final String key;
+        int count;
+
+        ResourceRef(String key, Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Returns the active bitmap of {@code key} or null.
+     */
+    synchronized Bitmap get(String key) {
+        purge();
+        ResourceRef ref = mResources.get(key);
+        return ref != null ? ref.get() : null;
+    }
+
+    /**
+     * Counts one more user of {@code bitmap}.
+     */
+    synchronized void acquire(String key, Bitmap bitmap) {
+        purge();
+        ResourceRef ref = mResources.get(key);
+        if (ref == null || ref.get() != bitmap) {
+            // a different bitmap of the same key stays untracked, it just never returns to the LRU
+            ref = new ResourceRef(key, bitmap, mQueue);
+            mResources.put(key, ref);
+        }
+        ref.count++;
+    }
+
+    /**
+     * Counts one user of {@code bitmap} less.
+     *
+     * @return true if that was the last one, the caller then moves the
+     *     bitmap back to the memory cache
+     */
+    synchronized boolean release(String key, Bitmap bitmap) {
+        ResourceRef ref = mResources.get(key);
+        if (ref == null || ref.get() != bitmap) {
+            return false;
+        }
+        if (--ref.count > 0) {
+            return false;
+        }
+        mResources.remove(key);
+        return true;
+    }
+
+    /**
+     * Returns true if {@code bitmap} is the active bitmap of {@code key}.
+     */
+    synchronized boolean contains(String key, Bitmap bitmap) {
+        ResourceRef ref = mResources.get(key);
+        return ref != null && ref.get() == bitmap;
+    }
+
+    synchronized int size() {
+        purge();
+        return mResources.size();
+    }
+
+    private void purge() {
+        ResourceRef ref;
+        while ((ref = (ResourceRef) mQueue.poll()) != null) {
+            if (mResources.get(ref.key) == ref) {
+                mResources.remove(ref.key);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.imageloader.loader;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+/**
+ * Keeps bitmaps that nobody displays any more so decodes can draw into them
+ * through {@link android.graphics.BitmapFactory.Options#inBitmap} instead of
+ * allocating. Bitmaps are bucketed by their allocation size and the pool
+ * drops the least recently added ones once it holds more than its byte
+ * budget.
+ * <p>
+ * Since KitKat any bitmap at least as large as the decode needs can be
+ * reused; before that the decode must have exactly the same size and config.
+ */
+public class BitmapPool {
+    // do not hand out a bitmap much larger than needed, it would waste the memory
+    private static final int MAX_OVERSIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    // all pooled bitmaps, least recently added first
+    private final LinkedHashSet<Bitmap> mOrder = new LinkedHashSet<Bitmap>();
+    private final int mMaxSize;
+    private int mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxSize the budget of the pool in bytes
+     */
+    public BitmapPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Offers a bitmap that is no longer used anywhere. Only mutable bitmaps
+     * can be decoded into, anything else is rejected.
+     *
+     * @return true if the pool took the bitmap
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        int size = getAllocationByteCount(bitmap);
+        if (size > mMaxSize || mOrder.contains(bitmap)) {
+            return false;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mOrder.add(bitmap);
+        mSize += size;
+        mPutCount++;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * Returns a bitmap a decode of {@code width} x {@code height} pixels can
+     * use as {@code inBitmap}, or null. The bitmap leaves the pool, so hand it
+     * back with {@link #put} if the decode does not use it.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int needed = width * height * getBytesPerPixel(config);
+        Bitmap result = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(needed);
+            if (entry != null && entry.getKey() <= needed * MAX_OVERSIZE_MULTIPLE) {
+                result = entry.getValue().pollLast();
+            }
+        } else {
+            ArrayDeque<Bitmap> bucket = mBuckets.get(needed);
+            if (bucket != null) {
+                for (Iterator<Bitmap> it = bucket.descendingIterator(); it.hasNext(); ) {
+                    Bitmap bitmap = it.next();
+                    if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                            && bitmap.getConfig() == config) {
+                        it.remove();
+                        result = bitmap;
+                        break;
+                    }
+                }
+            }
+        }
+        if (result == null) {
+            mMissCount++;
+            return null;
+        }
+        int size = getAllocationByteCount(result);
+        removeBucketIfEmpty(size);
+        mOrder.remove(result);
+        mSize -= size;
+        mHitCount++;
+        return result;
+    }
+
+    /**
+     * Returns a mutable bitmap of exactly {@code width} x {@code height} for a
+     * processor to draw into: a pooled one, cleared to transparent and with
+     * its alpha flag set, if one fits, else a new one.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height
+                || bitmap.getConfig() != config) {
+            // only KitKat and later hand out larger bitmaps, and they can reshape them
+            bitmap.reconfigure(width, height, config);
+        }
+        if (config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.ARGB_4444) {
+            // pooled bitmaps mostly come from jpeg decodes and still say they are opaque
+            bitmap.setHasAlpha(true);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Drops the least recently added bitmaps until the pool holds at most
+     * {@code maxSize} bytes.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Bitmap> it = mOrder.iterator();
+        while (mSize > maxSize && it.hasNext()) {
+            Bitmap bitmap = it.next();
+            it.remove();
+            int size = getAllocationByteCount(bitmap);
+            mBuckets.get(size).remove(bitmap);
+            removeBucketIfEmpty(size);
+            mSize -= size;
+            mEvictionCount++;
+            // left to the GC, recycle() would break anything still drawing it
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    private void removeBucketIfEmpty(int size) {
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket != null && bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,puts=%d,evictions=%d,hitRate=%d%%]",
+                mSize, mMaxSize, mHitCount, mMissCount, mPutCount, mEvictionCount, hitPercent);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
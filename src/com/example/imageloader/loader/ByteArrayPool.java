@@ -0,0 +1,108 @@
+package com.example.imageloader.loader;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps byte arrays that encoded images were read into, so the next disk
+ * cache hit reads into one of them instead of allocating. Arrays are bucketed
+ * by length and the pool drops the least recently added ones once it holds
+ * more than its byte budget, like {@link BitmapPool}.
+ */
+public class ByteArrayPool {
+    // do not hand out an array much larger than needed, it would waste the memory
+    private static final int MAX_OVERSIZE_MULTIPLE = 4;
+    // new arrays are rounded up to this, so similar sizes share a bucket
+    private static final int ROUNDING = 4 * 1024;
+
+    private final TreeMap<Integer, ArrayDeque<byte[]>> mBuckets = new TreeMap<Integer, ArrayDeque<byte[]>>();
+    // all pooled arrays, least recently added first
+    private final LinkedHashSet<byte[]> mOrder = new LinkedHashSet<byte[]>();
+    private final int mMaxSize;
+    private int mSize;
+
+    /**
+     * @param maxSize the budget of the pool in bytes
+     */
+    public ByteArrayPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns an array of at least {@code length} bytes, pooled if possible.
+     * Hand it back with {@link #put} once its content is not needed.
+     */
+    public synchronized byte[] get(int length) {
+        Map.Entry<Integer, ArrayDeque<byte[]>> entry = mBuckets.ceilingEntry(length);
+        if (entry == null || entry.getKey() > (long) length * MAX_OVERSIZE_MULTIPLE) {
+            int rounded = (int) Math.min(Integer.MAX_VALUE,
+                    ((long) length + ROUNDING - 1) / ROUNDING * ROUNDING);
+            return new byte[rounded];
+        }
+        byte[] buffer = entry.getValue().pollLast();
+        removeBucketIfEmpty(buffer.length);
+        mOrder.remove(buffer);
+        mSize -= buffer.length;
+        return buffer;
+    }
+
+    /**
+     * Offers an array nobody reads or writes any more. It may come from
+     * {@link #get} or anywhere else.
+     */
+    public synchronized void put(byte[] buffer) {
+        if (buffer == null || buffer.length == 0 || buffer.length > mMaxSize
+                || mOrder.contains(buffer)) {
+            return;
+        }
+        ArrayDeque<byte[]> bucket = mBuckets.get(buffer.length);
+        if (bucket == null) {
+            bucket = new ArrayDeque<byte[]>();
+            mBuckets.put(buffer.length, bucket);
+        }
+        bucket.addLast(buffer);
+        mOrder.add(buffer);
+        mSize += buffer.length;
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Drops the least recently added arrays until the pool holds at most
+     * {@code maxSize} bytes.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<byte[]> it = mOrder.iterator();
+        while (mSize > maxSize && it.hasNext()) {
+            byte[] buffer = it.next();
+            it.remove();
+            mBuckets.get(buffer.length).remove(buffer);
+            removeBucketIfEmpty(buffer.length);
+            mSize -= buffer.length;
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    private void removeBucketIfEmpty(int length) {
+        ArrayDeque<byte[]> bucket = mBuckets.get(length);
+        if (bucket != null && bucket.isEmpty()) {
+            mBuckets.remove(length);
+        }
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int maxSize() {
+        return mMaxSize;
+    }
+}
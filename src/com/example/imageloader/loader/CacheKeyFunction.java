@@ -0,0 +1,21 @@
+package com.example.imageloader.loader;
+
+/**
+ * Maps an image url to the key it is cached under, so urls that differ only
+ * in parts that do not change the image, e.g. a CDN host or a signature that
+ * expires, share one cache entry. The original url is still what gets
+ * fetched.
+ */
+public interface CacheKeyFunction {
+    /**
+     * Caches every url under itself.
+     */
+    CacheKeyFunction IDENTITY = new CacheKeyFunction() {
+        @Override
+        public String getKey(String url) {
+            return url;
+        }
+    };
+
+    String getKey(String url);
+}
@@ -0,0 +1,235 @@
+package com.example.imageloader.loader;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import com.example.imageloader.loader.net.Fetcher;
+
+/**
+ * The http validators and freshness of a disk cache entry, kept as text in
+ * the second value of the entry next to the image.
+ * <p>
+ * The freshness lifetime follows RFC 7234: max-age wins over Expires, and
+ * without either a tenth of the time since Last-Modified is used, at most a
+ * day. A response without any of them stays fresh for a day, images rarely
+ * change under the same url. no-cache and no-store make an entry stale at
+ * once, so it is revalidated on every load.
+ * <p>
+ * Cache-Control and Expires are kept as received, so a 304 that does not
+ * repeat them gets the lifetime of the stored response (RFC 7234 4.3.4).
+ */
+public final class CacheMetadata {
+    private static final long HEURISTIC_LIFETIME_MS = 24 * 60 * 60 * 1000L;
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last-modified";
+    private static final String EXPIRES = "expires";
+    private static final String CACHE_CONTROL_HEADER = "cache-control";
+    private static final String EXPIRES_HEADER = "expires-header";
+    // RFC 1123, the obsolete RFC 850 and asctime formats
+    private static final String[] HTTP_DATE_FORMATS = {
+            "EEE, dd MMM yyyy HH:mm:ss zzz", "EEEE, dd-MMM-yy HH:mm:ss zzz", "EEE MMM d HH:mm:ss yyyy"
+    };
+
+    /**
+     * Stale and without validators, for entries nothing is known about.
+     */
+    public static final CacheMetadata EMPTY = new CacheMetadata(null, null, null, null, 0);
+
+    private final String mEtag;
+    private final String mLastModified;
+    // the headers the lifetime was derived from besides Last-Modified, null if absent
+    private final String mCacheControl;
+    private final String mExpiresHeader;
+    // wall clock time the entry becomes stale at
+    private final long mExpires;
+
+    private CacheMetadata(String etag, String lastModified, String cacheControl,
+            String expiresHeader, long expires) {
+        mEtag = etag;
+        mLastModified = lastModified;
+        mCacheControl = cacheControl;
+        mExpiresHeader = expiresHeader;
+        mExpires = expires;
+    }
+
+    /**
+     * Reads the metadata of a 200 response.
+     *
+     * @param responseTime when the response arrived, see
+     *     {@link System#currentTimeMillis()}
+     */
+    public static CacheMetadata fromResponse(Fetcher.Response response, long responseTime) {
+        return create(response, responseTime, response.getHeader("ETag"),
+                response.getHeader("Last-Modified"), response.getHeader("Cache-Control"),
+                response.getHeader("Expires"));
+    }
+
+    /**
+     * Returns the metadata after a 304 answered {@code this}. Headers the 304
+     * repeats win, the ones it leaves out are kept, and the lifetime starts
+     * again at the 304.
+     *
+     * @param responseTime when the 304 arrived, see
+     *     {@link System#currentTimeMillis()}
+     */
+    public CacheMetadata revalidatedBy(Fetcher.Response notModified, long responseTime) {
+        return create(notModified, responseTime,
+                orElse(notModified.getHeader("ETag"), mEtag),
+                orElse(notModified.getHeader("Last-Modified"), mLastModified),
+                orElse(notModified.getHeader("Cache-Control"), mCacheControl),
+                orElse(notModified.getHeader("Expires"), mExpiresHeader));
+    }
+
+    private static String orElse(String value, String defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Derives the freshness from the given headers, and the age of the entry
+     * from the Date and Age of {@code response}.
+     */
+    private static CacheMetadata create(Fetcher.Response response, long responseTime,
+            String etag, String lastModified, String cacheControl, String expires) {
+        long date = parseHttpDate(response.getHeader("Date"), responseTime);
+        long age = Math.max(0, responseTime - date);
+        String ageHeader = response.getHeader("Age");
+        if (ageHeader != null) {
+            age = Math.max(age, parseSeconds(ageHeader) * 1000L);
+        }
+
+        long lifetime = -1;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    lifetime = 0;
+                    break;
+                } else if (directive.startsWith("max-age=")) {
+                    lifetime = parseSeconds(directive.substring("max-age=".length())) * 1000L;
+                }
+            }
+        }
+        if (lifetime < 0 && expires != null) {
+            // an invalid date, e.g. "0", means already expired
+            lifetime = Math.max(0, parseHttpDate(expires, date) - date);
+        }
+        if (lifetime < 0) {
+            long modified = parseHttpDate(lastModified, -1);
+            lifetime = modified > 0 && modified < date
+                    ? Math.min((date - modified) / 10, HEURISTIC_LIFETIME_MS)
+                    : HEURISTIC_LIFETIME_MS;
+        }
+        return new CacheMetadata(etag, lastModified, cacheControl, expires,
+                responseTime + lifetime - age);
+    }
+
+    private static long parseHttpDate(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        for (String pattern : HTTP_DATE_FORMATS) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return format.parse(value).getTime();
+            } catch (ParseException e) {
+                // try the next format
+            }
+        }
+        return defaultValue;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public boolean hasValidators() {
+        return mEtag != null || mLastModified != null;
+    }
+
+    public boolean isFresh(long now) {
+        return now < mExpires;
+    }
+
+    public String getEtag() {
+        return mEtag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /**
+     * Returns the text stored in the disk cache.
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        if (mEtag != null) {
+            sb.append(ETAG).append(": ").append(mEtag).append('\n');
+        }
+        if (mLastModified != null) {
+            sb.append(LAST_MODIFIED).append(": ").append(mLastModified).append('\n');
+        }
+        if (mCacheControl != null) {
+            sb.append(CACHE_CONTROL_HEADER).append(": ").append(mCacheControl).append('\n');
+        }
+        if (mExpiresHeader != null) {
+            sb.append(EXPIRES_HEADER).append(": ").append(mExpiresHeader).append('\n');
+        }
+        sb.append(EXPIRES).append(": ").append(mExpires).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Parses the text of {@link #encode}. Lines it does not understand are
+     * skipped, so the result is {@link #EMPTY} at worst.
+     */
+    public static CacheMetadata decode(String text) {
+        String etag = null;
+        String lastModified = null;
+        String cacheControl = null;
+        String expiresHeader = null;
+        long expires = 0;
+        for (String line : text.split("\n")) {
+            int colon = line.indexOf(": ");
+            if (colon == -1) {
+                continue;
+            }
+            String name = line.substring(0, colon);
+            String value = line.substring(colon + 2);
+            if (name.equals(ETAG)) {
+                etag = value;
+            } else if (name.equals(LAST_MODIFIED)) {
+                lastModified = value;
+            } else if (name.equals(CACHE_CONTROL_HEADER)) {
+                cacheControl = value;
+            } else if (name.equals(EXPIRES_HEADER)) {
+                expiresHeader = value;
+            } else if (name.equals(EXPIRES)) {
+                try {
+                    expires = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    expires = 0;
+                }
+            }
+        }
+        return new CacheMetadata(etag, lastModified, cacheControl, expiresHeader, expires);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheMetadata[etag=" + mEtag + ",lastModified=" + mLastModified
+                + ",cacheControl=" + mCacheControl + ",expiresHeader=" + mExpiresHeader
+                + ",expires=" + mExpires + "]";
+    }
+}
@@ -15,14 +15,12 @@ package com.example.imageloader.loader;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,17 +28,26 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.charset.Charsets;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
 /**
  * A cache that uses a bounded amount of space on a filesystem. Each cache
  * entry has a string key and a fixed number of values. Values are byte
@@ -85,18 +92,25 @@ import java.util.concurrent.TimeUnit;
  * responding appropriately.
  */
 public final class DiskLruCache implements Closeable {
-    static final String JOURNAL_FILE = "journal";
-    static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String TAG = "DiskLruCache";
+    static final String JOURNAL_FILE = "journal.bin";
+    static final String JOURNAL_FILE_TMP = "journal.bin.tmp";
+    static final String TEXT_JOURNAL_FILE = "journal";
+    static final String TEXT_JOURNAL_FILE_TMP = "journal.tmp";
     static final String MAGIC = "libcore.io.DiskLruCache";
     static final String VERSION_1 = "1";
     static final long ANY_SEQUENCE_NUMBER = -1;
+    static final Charset US_ASCII = Charset.forName("US-ASCII");
+    static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final String CLEAN = "CLEAN";
     private static final String DIRTY = "DIRTY";
     private static final String REMOVE = "REMOVE";
     private static final String READ = "READ";
     /*
-     * This cache uses a journal file named "journal". A typical journal file
-     * looks like this:
+     * This cache uses a binary journal file named "journal.bin", see
+     * MappedJournal. Its records are the operations of the text journal named
+     * "journal" that older versions wrote, which is converted when the cache
+     * is opened. A typical text journal file looks like this:
      *     libcore.io.DiskLruCache
      *     1
      *     100
@@ -129,21 +143,26 @@ public final class DiskLruCache implements Closeable {
      *   o REMOVE lines track entries that have been deleted.
      *
      * The journal file is appended to as cache operations occur. The journal may
-     * occasionally be compacted by dropping redundant lines. A temporary file named
-     * "journal.tmp" will be used during compaction; that file should be deleted if
-     * it exists when the cache is opened.
+     * occasionally be compacted by dropping redundant records. A temporary file named
+     * "journal.bin.tmp" will be used during compaction; that file should be deleted if
+     * it exists when the cache is opened. Compaction writes a snapshot of the entries
+     * to that file without holding the cache's lock; records appended meanwhile go to
+     * the old journal and are replayed onto the new one before it replaces the old.
      */
     private final File directory;
     private final File journalFile;
     private final File journalFileTmp;
+    private final File textJournalFile;
     private final int appVersion;
     private final long maxSize;
     private final int valueCount;
     private long size = 0;
-    private Writer journalWriter;
+    private MappedJournal journal;
     private final LinkedHashMap<String, Entry> lruEntries
             = new LinkedHashMap<String, Entry>(0, 0.75f, true);
     private int redundantOpCount;
+    /** Records appended while the journal is compacted, null if it is not. */
+    private List<byte[]> pendingJournalRecords;
     /**
      * To differentiate between old and current snapshots, each entry is given
      * a sequence number each time an edit is committed. A snapshot is stale if
@@ -153,18 +172,27 @@ public final class DiskLruCache implements Closeable {
     /** This cache uses a single background thread to evict entries. */
     private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
             60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    /** Run on the cleanup thread after a commit changed the size, or null. */
+    private Runnable sizeListener;
     private final Callable<Void> cleanupCallable = new Callable<Void>() {
         @Override public Void call() throws Exception {
+            List<byte[]> records;
             synchronized (DiskLruCache.this) {
-                if (journalWriter == null) {
+                if (journal == null) {
                     return null; // closed
                 }
                 trimToSize();
-                if (journalRebuildRequired()) {
-                    rebuildJournal();
-                    redundantOpCount = 0;
+                if (!journalRebuildRequired() || pendingJournalRecords != null) {
+                    return null;
+                }
+                records = new ArrayList<byte[]>(lruEntries.size());
+                for (Entry entry : lruEntries.values()) {
+                    records.add(getJournalRecord(entry));
                 }
+                pendingJournalRecords = new ArrayList<byte[]>();
+                redundantOpCount = 0;
             }
+            compactJournal(records);
             return null;
         }
     };
@@ -173,6 +201,7 @@ public final class DiskLruCache implements Closeable {
         this.appVersion = appVersion;
         this.journalFile = new File(directory, JOURNAL_FILE);
         this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.textJournalFile = new File(directory, TEXT_JOURNAL_FILE);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
     }
@@ -197,13 +226,30 @@ public final class DiskLruCache implements Closeable {
         // prefer to pick up where we left off
         DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
         if (cache.journalFile.exists()) {
+            MappedJournal journal = null;
             try {
-                cache.readJournal();
+                journal = cache.readJournal();
                 cache.processJournal();
-                cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true));
+                cache.journal = journal;
                 return cache;
             } catch (IOException journalIsCorrupt) {
-                System.logW("DiskLruCache " + directory + " is corrupt: "
+                Log.w(TAG, directory + " is corrupt: "
+                        + journalIsCorrupt.getMessage() + ", removing");
+                closeQuietly(journal);
+                cache.delete();
+            }
+        } else if (cache.textJournalFile.exists()) {
+            try {
+                // written by an older version, convert it once
+                cache.readTextJournal();
+                cache.processJournal();
+                deleteIfExists(new File(directory, TEXT_JOURNAL_FILE_TMP));
+                cache.rebuildJournal();
+                cache.redundantOpCount = 0;
+                deleteIfExists(cache.textJournalFile);
+                return cache;
+            } catch (IOException journalIsCorrupt) {
+                Log.w(TAG, directory + " is corrupt: "
                         + journalIsCorrupt.getMessage() + ", removing");
                 cache.delete();
             }
@@ -214,9 +260,41 @@ public final class DiskLruCache implements Closeable {
         cache.rebuildJournal();
         return cache;
     }
-    private void readJournal() throws IOException {
-        StrictLineReader reader = new StrictLineReader(new FileInputStream(journalFile),
-                Charsets.US_ASCII);
+    private MappedJournal readJournal() throws IOException {
+        MappedJournal journal = MappedJournal.open(journalFile, appVersion, valueCount,
+                new MappedJournal.Replay() {
+                    @Override public void onRecord(byte op, String key, long[] lengths)
+                            throws IOException {
+                        readJournalRecord(op, key, lengths);
+                    }
+                });
+        redundantOpCount = journal.getRecordCount() - lruEntries.size();
+        return journal;
+    }
+    private void readJournalRecord(byte op, String key, long[] lengths) throws IOException {
+        if (op == MappedJournal.REMOVE) {
+            lruEntries.remove(key);
+            return;
+        }
+        Entry entry = lruEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        }
+        if (op == MappedJournal.CLEAN) {
+            entry.readable = true;
+            entry.currentEditor = null;
+            System.arraycopy(lengths, 0, entry.lengths, 0, valueCount);
+        } else if (op == MappedJournal.DIRTY) {
+            entry.currentEditor = new Editor(entry);
+        } else if (op != MappedJournal.READ) {
+            // lruEntries.get() already did the work of a READ
+            throw new IOException("unexpected journal record: " + op + " " + key);
+        }
+    }
+    private void readTextJournal() throws IOException {
+        StrictLineReader reader = new StrictLineReader(new FileInputStream(textJournalFile),
+                US_ASCII);
         try {
             String magic = reader.readLine();
             String version = reader.readLine();
@@ -242,7 +320,7 @@ public final class DiskLruCache implements Closeable {
             }
             redundantOpCount = lineCount - lruEntries.size();
         } finally {
-            IoUtils.closeQuietly(reader);
+            closeQuietly(reader);
         }
     }
     private void readJournalLine(String line) throws IOException {
@@ -307,37 +385,73 @@ public final class DiskLruCache implements Closeable {
      * current journal if it exists.
      */
     private synchronized void rebuildJournal() throws IOException {
-        if (journalWriter != null) {
-            journalWriter.close();
-        }
-        Writer writer = new BufferedWriter(new FileWriter(journalFileTmp));
-        writer.write(MAGIC);
-        writer.write("\n");
-        writer.write(VERSION_1);
-        writer.write("\n");
-        writer.write(Integer.toString(appVersion));
-        writer.write("\n");
-        writer.write(Integer.toString(valueCount));
-        writer.write("\n");
-        writer.write("\n");
+        List<byte[]> records = new ArrayList<byte[]>(lruEntries.size());
         for (Entry entry : lruEntries.values()) {
-            if (entry.currentEditor != null) {
-                writer.write(DIRTY + ' ' + entry.key + '\n');
-            } else {
-                writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-            }
+            records.add(getJournalRecord(entry));
+        }
+        MappedJournal newJournal = MappedJournal.create(journalFileTmp, appVersion, valueCount,
+                records);
+        if (journal != null) {
+            journal.close();
         }
-        writer.close();
         journalFileTmp.renameTo(journalFile);
-        journalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+        journal = newJournal;
     }
-    private static void deleteIfExists(File file) throws IOException {
+    /**
+     * Writes {@code records}, the snapshot of every entry taken by the cleanup
+     * callable, to a new journal without holding the lock, so gets and edits
+     * go on meanwhile. Only appending the records they wrote in the meantime
+     * and swapping the files happens under the lock.
+     */
+    private void compactJournal(List<byte[]> records) throws IOException {
+        MappedJournal newJournal = null;
+        boolean swapped = false;
         try {
-            Libcore.os.remove(file.getPath());
-        } catch (ErrnoException errnoException) {
-            if (errnoException.errno != OsConstants.ENOENT) {
-                throw errnoException.rethrowAsIOException();
+            newJournal = MappedJournal.create(journalFileTmp, appVersion, valueCount, records);
+            synchronized (this) {
+                if (journal == null) {
+                    return; // closed meanwhile
+                }
+                for (byte[] record : pendingJournalRecords) {
+                    newJournal.append(record);
+                }
+                journal.close();
+                journalFileTmp.renameTo(journalFile);
+                journal = newJournal;
+                swapped = true;
             }
+        } finally {
+            synchronized (this) {
+                pendingJournalRecords = null;
+                if (!swapped) {
+                    // the old journal is still complete, retry on a later operation
+                    closeQuietly(newJournal);
+                    redundantOpCount += records.size();
+                    journalFileTmp.delete();
+                }
+            }
+        }
+    }
+    private byte[] getJournalRecord(Entry entry) {
+        if (entry.currentEditor != null) {
+            return MappedJournal.encode(MappedJournal.DIRTY, entry.key, null, valueCount);
+        }
+        return MappedJournal.encode(MappedJournal.CLEAN, entry.key, entry.lengths, valueCount);
+    }
+    /**
+     * Appends a record to the journal, and to the records replayed onto the
+     * compacted journal if a compaction is running. Callers hold the lock.
+     */
+    private void writeJournalRecord(byte op, String key, long[] lengths) throws IOException {
+        byte[] record = MappedJournal.encode(op, key, lengths, valueCount);
+        journal.append(record);
+        if (pendingJournalRecords != null) {
+            pendingJournalRecords.add(record);
+        }
+    }
+    private static void deleteIfExists(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("failed to delete " + file);
         }
     }
     /**
@@ -360,21 +474,41 @@ public final class DiskLruCache implements Closeable {
          * snapshot. If we opened streams lazily then the streams could come
          * from different edits.
          */
-        InputStream[] ins = new InputStream[valueCount];
+        FileInputStream[] ins = new FileInputStream[valueCount];
         try {
             for (int i = 0; i < valueCount; i++) {
                 ins[i] = new FileInputStream(entry.getCleanFile(i));
             }
         } catch (FileNotFoundException e) {
             // a file must have been deleted manually!
+            for (InputStream in : ins) {
+                closeQuietly(in);
+            }
             return null;
         }
         redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
+        entry.lastAccess = System.nanoTime();
+        writeJournalRecord(MappedJournal.READ, key, null);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
-        return new Snapshot(key, entry.sequenceNumber, ins);
+        return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths.clone());
+    }
+    /**
+     * Reads the value {@code index} of the entry named {@code key} like
+     * {@link Snapshot#read} and closes the snapshot right away, so no file
+     * stays open. Returns null if the entry is not readable.
+     */
+    public ByteBuffer read(String key, int index, ByteArrayPool pool) throws IOException {
+        Snapshot snapshot = get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.read(index, pool);
+        } finally {
+            snapshot.close();
+        }
     }
     /**
      * Returns an editor for the entry named {@code key}, or null if another
@@ -399,9 +533,9 @@ public final class DiskLruCache implements Closeable {
         }
         Editor editor = new Editor(entry);
         entry.currentEditor = editor;
-        // flush the journal before creating files to prevent file leaks
-        journalWriter.write(DIRTY + ' ' + key + '\n');
-        journalWriter.flush();
+        // journal the edit before creating files to prevent file leaks; the
+        // mapped journal reaches the file system without a flush
+        writeJournalRecord(MappedJournal.DIRTY, key, null);
         return editor;
     }
     /**
@@ -439,7 +573,7 @@ public final class DiskLruCache implements Closeable {
                 }
                 if (!entry.getDirtyFile(i).exists()) {
                     editor.abort();
-                    System.logW("DiskLruCache: Newly created entry doesn't have file for index " + i);
+                    Log.w(TAG, "Newly created entry doesn't have file for index " + i);
                     return;
                 }
             }
@@ -463,17 +597,63 @@ public final class DiskLruCache implements Closeable {
         entry.currentEditor = null;
         if (entry.readable | success) {
             entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+            writeJournalRecord(MappedJournal.CLEAN, entry.key, entry.lengths);
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++;
+                entry.lastAccess = System.nanoTime();
             }
         } else {
             lruEntries.remove(entry.key);
-            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+            writeJournalRecord(MappedJournal.REMOVE, entry.key, null);
         }
         if (size > maxSize || journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
+        if (success && sizeListener != null) {
+            // outside of this cache's lock, the listener may lock other caches
+            executorService.submit(sizeListener);
+        }
+    }
+    /**
+     * Sets a listener run on the cleanup thread after each commit, e.g. to
+     * enforce a size budget shared with other caches. Set it before the
+     * cache is used.
+     */
+    void setSizeListener(Runnable listener) {
+        sizeListener = listener;
+    }
+    /**
+     * Returns the {@link System#nanoTime()} of the last read or commit of the
+     * least recently used entry that can be evicted, {@link Long#MIN_VALUE}
+     * if it was not used since the cache was opened, or {@link Long#MAX_VALUE}
+     * if there is none.
+     */
+    synchronized long getEldestAccessTime() {
+        if (journal == null) {
+            return Long.MAX_VALUE;
+        }
+        for (Entry entry : lruEntries.values()) {
+            if (entry.currentEditor == null) {
+                return entry.lastAccess;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    /**
+     * Removes the least recently used entry that is not being edited.
+     *
+     * @return false if there was none
+     */
+    synchronized boolean evictEldest() throws IOException {
+        if (journal == null) {
+            return false;
+        }
+        for (Entry entry : lruEntries.values()) {
+            if (entry.currentEditor == null) {
+                return remove(entry.key);
+            }
+        }
+        return false;
     }
     /**
      * We only rebuild the journal when it will halve the size of the journal
@@ -506,7 +686,7 @@ public final class DiskLruCache implements Closeable {
             entry.lengths[i] = 0;
         }
         redundantOpCount++;
-        journalWriter.append(REMOVE + ' ' + key + '\n');
+        writeJournalRecord(MappedJournal.REMOVE, key, null);
         lruEntries.remove(key);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
@@ -517,26 +697,26 @@ public final class DiskLruCache implements Closeable {
      * Returns true if this cache has been closed.
      */
     public boolean isClosed() {
-        return journalWriter == null;
+        return journal == null;
     }
     private void checkNotClosed() {
-        if (journalWriter == null) {
+        if (journal == null) {
             throw new IllegalStateException("cache is closed");
         }
     }
     /**
-     * Force buffered operations to the filesystem.
+     * Evicts entries above the size limit. Journal records reach the
+     * filesystem as they are written, so there is nothing to flush.
      */
     public synchronized void flush() throws IOException {
         checkNotClosed();
         trimToSize();
-        journalWriter.flush();
     }
     /**
      * Closes this cache. Stored values will remain on the filesystem.
      */
     public synchronized void close() throws IOException {
-        if (journalWriter == null) {
+        if (journal == null) {
             return; // already closed
         }
         for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
@@ -545,12 +725,12 @@ public final class DiskLruCache implements Closeable {
             }
         }
         trimToSize();
-        journalWriter.close();
-        journalWriter = null;
+        journal.close();
+        journal = null;
     }
     private void trimToSize() throws IOException {
         while (size > maxSize) {
-            Map.Entry<String, Entry> toEvict = lruEntries.eldest();
+            Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
             remove(toEvict.getKey());
         }
     }
@@ -561,16 +741,74 @@ public final class DiskLruCache implements Closeable {
      */
     public void delete() throws IOException {
         close();
-        IoUtils.deleteContents(directory);
+        deleteContents(directory);
     }
     private void validateKey(String key) {
         if (key.contains(" ") || key.contains("\n") || key.contains("\r")) {
             throw new IllegalArgumentException(
                     "keys must not contain spaces or newlines: \"" + key + "\"");
         }
+        if (getUtf8Length(key) > MappedJournal.MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("keys must not be longer than "
+                    + MappedJournal.MAX_KEY_LENGTH + " UTF-8 bytes: \"" + key + "\"");
+        }
+    }
+    private static int getUtf8Length(String key) {
+        int length = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800 || Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                // a surrogate pair takes 4 bytes
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
     private static String inputStreamToString(InputStream in) throws IOException {
-        return Streams.readFully(new InputStreamReader(in, Charsets.UTF_8));
+        Reader reader = new InputStreamReader(in, UTF_8);
+        try {
+            StringWriter writer = new StringWriter();
+            char[] buffer = new char[1024];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, count);
+            }
+            return writer.toString();
+        } finally {
+            reader.close();
+        }
+    }
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (RuntimeException rethrown) {
+                throw rethrown;
+            } catch (Exception ignored) {
+            }
+        }
+    }
+    /**
+     * Deletes the contents of {@code dir}. Throws an IOException if any file
+     * could not be deleted.
+     */
+    static void deleteContents(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("not a readable directory: " + dir);
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete()) {
+                throw new IOException("failed to delete file: " + file);
+            }
+        }
     }
     /**
      * A snapshot of the values for an entry.
@@ -578,11 +816,13 @@ public final class DiskLruCache implements Closeable {
     public final class Snapshot implements Closeable {
         private final String key;
         private final long sequenceNumber;
-        private final InputStream[] ins;
-        private Snapshot(String key, long sequenceNumber, InputStream[] ins) {
+        private final FileInputStream[] ins;
+        private final long[] lengths;
+        private Snapshot(String key, long sequenceNumber, FileInputStream[] ins, long[] lengths) {
             this.key = key;
             this.sequenceNumber = sequenceNumber;
             this.ins = ins;
+            this.lengths = lengths;
         }
         /**
          * Returns an editor for this snapshot's entry, or null if either the
@@ -604,9 +844,50 @@ public final class DiskLruCache implements Closeable {
         public String getString(int index) throws IOException {
             return inputStreamToString(getInputStream(index));
         }
+        /**
+         * Returns the length in bytes of the value for {@code index}.
+         */
+        public long getLength(int index) {
+            return lengths[index];
+        }
+        /**
+         * Reads the whole value for {@code index} with as few reads as the
+         * file system allows into an array from {@code pool}. The returned
+         * buffer wraps that array from 0 to the length of the value; hand the
+         * array back with {@link ByteArrayPool#put} once it is decoded.
+         * Do not mix with reads from {@link #getInputStream}.
+         */
+        public ByteBuffer read(int index, ByteArrayPool pool) throws IOException {
+            long length = lengths[index];
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("value too large: " + length);
+            }
+            byte[] buffer = pool.get((int) length);
+            int count = 0;
+            try {
+                while (count < length) {
+                    int read = ins[index].read(buffer, count, (int) length - count);
+                    if (read == -1) {
+                        throw new EOFException("expected " + length + " bytes, got " + count);
+                    }
+                    count += read;
+                }
+            } catch (IOException e) {
+                pool.put(buffer);
+                throw e;
+            }
+            return ByteBuffer.wrap(buffer, 0, count);
+        }
+        /**
+         * Maps the value for {@code index} read only. The mapping stays valid
+         * after the snapshot is closed and the file is evicted.
+         */
+        public MappedByteBuffer map(int index) throws IOException {
+            return ins[index].getChannel().map(FileChannel.MapMode.READ_ONLY, 0, lengths[index]);
+        }
         @Override public void close() {
             for (InputStream in : ins) {
-                IoUtils.closeQuietly(in);
+                closeQuietly(in);
             }
         }
     }
@@ -668,10 +949,10 @@ public final class DiskLruCache implements Closeable {
         public void set(int index, String value) throws IOException {
             Writer writer = null;
             try {
-                writer = new OutputStreamWriter(newOutputStream(index), Charsets.UTF_8);
+                writer = new OutputStreamWriter(newOutputStream(index), UTF_8);
                 writer.write(value);
             } finally {
-                IoUtils.closeQuietly(writer);
+                closeQuietly(writer);
             }
         }
         /**
@@ -737,17 +1018,12 @@ public final class DiskLruCache implements Closeable {
         private Editor currentEditor;
         /** The sequence number of the most recently committed edit to this entry. */
         private long sequenceNumber;
+        /** {@link System#nanoTime()} of the last read or commit, MIN_VALUE if none since open. */
+        private long lastAccess = Long.MIN_VALUE;
         private Entry(String key) {
             this.key = key;
             this.lengths = new long[valueCount];
         }
-        public String getLengths() throws IOException {
-            StringBuilder result = new StringBuilder();
-            for (long size : lengths) {
-                result.append(' ').append(size);
-            }
-            return result.toString();
-        }
         /**
          * Set lengths using decimal numbers like "10123".
          */
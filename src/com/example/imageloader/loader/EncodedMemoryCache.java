@@ -0,0 +1,247 @@
+package com.example.imageloader.loader;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the encoded bytes of recently read images in direct ByteBuffers,
+ * between the bitmap memory cache and the disk cache. A hit skips the file
+ * reads of the disk cache and costs only a copy and a decode. Encoded images
+ * are about a tenth of their bitmaps, so the same memory holds many more of
+ * them.
+ * <p>
+ * The memory is allocated in slabs of {@link #SLAB_SIZE} bytes, each split
+ * into chunks of {@link #CHUNK_SIZE}; an image takes as many chunks as it
+ * needs, wherever they are free. Slabs are allocated as the cache fills and
+ * kept, so a steady cache allocates nothing and fragments nothing. Entries
+ * are evicted least recently used first, and a slab whose chunks are all
+ * free is released when the cache is trimmed.
+ */
+public class EncodedMemoryCache {
+    static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNKS_PER_SLAB = 64;
+    static final int SLAB_SIZE = CHUNK_SIZE * CHUNKS_PER_SLAB;
+    // a single image may not push out more than this share of the cache
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    private static class Entry {
+        final int[] chunks;
+        final int length;
+
+        Entry(int[] chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+    }
+
+    // in access order, the eldest entry is evicted first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // the metadata of the keys of mEntries, apart so freshness checks do not reorder it
+    private final HashMap<String, CacheMetadata> mMetadata = new HashMap<String, CacheMetadata>();
+    // null until needed or after being released
+    private final ByteBuffer[] mSlabs;
+    // the free chunks of the allocated slabs
+    private final BitSet mFreeChunks = new BitSet();
+    private int mMaxSize;
+    // bytes of the chunks in use
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxSize the budget in bytes, which {@link #resize} can lower but
+     *     never raise above this
+     */
+    public EncodedMemoryCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+        mSlabs = new ByteBuffer[(maxSize + SLAB_SIZE - 1) / SLAB_SIZE];
+    }
+
+    /**
+     * Returns the metadata {@code key} was put with, or null if it is not
+     * cached. Does not count as a use.
+     */
+    public synchronized CacheMetadata getMetadata(String key) {
+        return mMetadata.get(key);
+    }
+
+    /**
+     * Replaces the metadata of {@code key} if it is cached, e.g. after a
+     * revalidation.
+     */
+    public synchronized void setMetadata(String key, CacheMetadata metadata) {
+        if (mMetadata.containsKey(key)) {
+            mMetadata.put(key, metadata);
+        }
+    }
+
+    /**
+     * Copies the bytes of {@code key} into an array of {@code pool}, like
+     * {@link DiskLruCache.Snapshot#read}. Hand the array back with
+     * {@link ByteArrayPool#put} once it is decoded.
+     *
+     * @return a buffer wrapping the array from 0 to the length of the image,
+     *     or null if it is not cached
+     */
+    public synchronized ByteBuffer get(String key, ByteArrayPool pool) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        byte[] buffer = pool.get(entry.length);
+        int copied = 0;
+        for (int chunk : entry.chunks) {
+            int count = Math.min(CHUNK_SIZE, entry.length - copied);
+            ByteBuffer slab = mSlabs[chunk / CHUNKS_PER_SLAB];
+            slab.position((chunk % CHUNKS_PER_SLAB) * CHUNK_SIZE);
+            slab.get(buffer, copied, count);
+            copied += count;
+        }
+        return ByteBuffer.wrap(buffer, 0, entry.length);
+    }
+
+    /**
+     * Copies {@code length} bytes at {@code offset} into the cache under
+     * {@code key}, evicting the least recently used images as needed.
+     *
+     * @return false if the image is too large for the cache
+     */
+    public synchronized boolean put(String key, byte[] data, int offset, int length,
+            CacheMetadata metadata) {
+        remove(key);
+        if (length == 0 || length > mMaxSize / MAX_ENTRY_FRACTION) {
+            return false;
+        }
+        int chunkCount = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        evictTo(mMaxSize - chunkCount * CHUNK_SIZE);
+        int[] chunks = new int[chunkCount];
+        int copied = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int chunk = allocateChunk();
+            chunks[i] = chunk;
+            int count = Math.min(CHUNK_SIZE, length - copied);
+            ByteBuffer slab = mSlabs[chunk / CHUNKS_PER_SLAB];
+            slab.position((chunk % CHUNKS_PER_SLAB) * CHUNK_SIZE);
+            slab.put(data, offset + copied, count);
+            copied += count;
+        }
+        mSize += chunkCount * CHUNK_SIZE;
+        mEntries.put(key, new Entry(chunks, length));
+        mMetadata.put(key, metadata);
+        return true;
+    }
+
+    /**
+     * Takes the lowest free chunk, so the images pack into the first slabs
+     * and the last ones empty out to be released. The caller made room.
+     */
+    private int allocateChunk() {
+        int chunk = mFreeChunks.nextSetBit(0);
+        if (chunk < 0) {
+            int slab = 0;
+            while (mSlabs[slab] != null) {
+                slab++;
+            }
+            mSlabs[slab] = ByteBuffer.allocateDirect(SLAB_SIZE);
+            chunk = slab * CHUNKS_PER_SLAB;
+            mFreeChunks.set(chunk, chunk + CHUNKS_PER_SLAB);
+        }
+        mFreeChunks.clear(chunk);
+        return chunk;
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mMetadata.remove(key);
+            free(entry);
+        }
+    }
+
+    private void free(Entry entry) {
+        for (int chunk : entry.chunks) {
+            mFreeChunks.set(chunk);
+        }
+        mSize -= entry.chunks.length * CHUNK_SIZE;
+    }
+
+    private void evictTo(int maxSize) {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mSize > maxSize && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            mMetadata.remove(eldest.getKey());
+            free(eldest.getValue());
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Sets the budget, at most the size the cache was created with, and
+     * evicts and releases slabs down to it.
+     */
+    public synchronized void resize(int maxSize) {
+        mMaxSize = Math.max(0, Math.min(maxSize, mSlabs.length * SLAB_SIZE));
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Evicts the least recently used images until at most {@code maxSize}
+     * bytes are in use, then releases the slabs left empty.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        evictTo(maxSize);
+        for (int slab = 0; slab < mSlabs.length; slab++) {
+            int first = slab * CHUNKS_PER_SLAB;
+            if (mSlabs[slab] != null && mFreeChunks.nextClearBit(first) >= first + CHUNKS_PER_SLAB) {
+                mSlabs[slab] = null;
+                mFreeChunks.clear(first, first + CHUNKS_PER_SLAB);
+            }
+        }
+    }
+
+    public void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Bytes of the chunks in use, which round each image up to whole chunks.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("EncodedMemoryCache[size=%d,maxSize=%d,entries=%d,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]",
+                mSize, mMaxSize, mEntries.size(), mHitCount, mMissCount, mEvictionCount, hitPercent);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.imageloader.loader;
+
+/**
+ * Finds the JPEG thumbnail most camera images embed in their Exif header
+ * while the image is still downloading. The header sits in an APP1 segment
+ * right after the start of the file, so the thumbnail is complete after the
+ * first few KB of a body that may take seconds to arrive.
+ * <p>
+ * Feed it the bytes of the body in order until {@link #feed} returns
+ * something other than {@link #NEED_MORE}. Only the header is buffered.
+ */
+class ExifThumbnailParser {
+    static final int NEED_MORE = 0;
+    // not a JPEG, no Exif header or no thumbnail in it
+    static final int NONE = 1;
+    static final int FOUND = 2;
+
+    // Exif headers are limited to one segment of 64 KB, skip images that put much before it
+    private static final int MAX_HEADER_SIZE = 128 * 1024;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_EOI = 0xd9;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private byte[] mBuffer = new byte[8 * 1024];
+    private int mLength;
+    private int mResult = NEED_MORE;
+    private int mThumbnailOffset;
+    private int mThumbnailLength;
+    private boolean mLittleEndian;
+
+    /**
+     * Appends the next {@code count} bytes of the image.
+     *
+     * @return {@link #NEED_MORE} until the thumbnail is found or known to be
+     *     missing, then the same result on every call
+     */
+    int feed(byte[] data, int offset, int count) {
+        if (mResult != NEED_MORE) {
+            return mResult;
+        }
+        int needed = Math.min(mLength + count, MAX_HEADER_SIZE);
+        if (needed > mBuffer.length) {
+            byte[] buffer = new byte[Math.min(Math.max(needed, mBuffer.length * 2), MAX_HEADER_SIZE)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+        int copied = needed - mLength;
+        System.arraycopy(data, offset, mBuffer, mLength, copied);
+        mLength = needed;
+        mResult = parse();
+        if (mResult == NEED_MORE && mLength == MAX_HEADER_SIZE) {
+            mResult = NONE;
+        }
+        return mResult;
+    }
+
+    /**
+     * The buffered header, the thumbnail is at {@link #getThumbnailOffset()}
+     * in it once found.
+     */
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    int getThumbnailOffset() {
+        return mThumbnailOffset;
+    }
+
+    int getThumbnailLength() {
+        return mThumbnailLength;
+    }
+
+    private int parse() {
+        if (mLength < 2) {
+            return NEED_MORE;
+        }
+        if ((mBuffer[0] & 0xff) != 0xff || (mBuffer[1] & 0xff) != 0xd8) {
+            return NONE;
+        }
+        int pos = 2;
+        while (true) {
+            if (pos + 4 > mLength) {
+                return NEED_MORE;
+            }
+            if ((mBuffer[pos] & 0xff) != 0xff) {
+                return NONE;
+            }
+            int marker = mBuffer[pos + 1] & 0xff;
+            if (marker == 0xff) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                // the image data starts, the headers are over
+                return NONE;
+            }
+            int segmentLength = ((mBuffer[pos + 2] & 0xff) << 8) | (mBuffer[pos + 3] & 0xff);
+            if (segmentLength < 2) {
+                return NONE;
+            }
+            int segmentEnd = pos + 2 + segmentLength;
+            if (segmentEnd > MAX_HEADER_SIZE) {
+                return NONE;
+            }
+            if (marker == MARKER_APP1) {
+                if (segmentEnd > mLength) {
+                    return NEED_MORE;
+                }
+                if (parseExif(pos + 4, segmentEnd)) {
+                    return FOUND;
+                }
+            }
+            pos = segmentEnd;
+        }
+    }
+
+    /**
+     * Looks for the thumbnail tags in IFD1 of the Exif data in
+     * [{@code start}, {@code end}).
+     */
+    private boolean parseExif(int start, int end) {
+        if (end - start < 14 || mBuffer[start] != 'E' || mBuffer[start + 1] != 'x'
+                || mBuffer[start + 2] != 'i' || mBuffer[start + 3] != 'f'
+                || mBuffer[start + 4] != 0 || mBuffer[start + 5] != 0) {
+            return false;
+        }
+        int tiff = start + 6;
+        if (mBuffer[tiff] == 'I' && mBuffer[tiff + 1] == 'I') {
+            mLittleEndian = true;
+        } else if (mBuffer[tiff] == 'M' && mBuffer[tiff + 1] == 'M') {
+            mLittleEndian = false;
+        } else {
+            return false;
+        }
+        if (readShort(tiff + 2) != 42) {
+            return false;
+        }
+        // IFD0 describes the image, the IFD linked after it the thumbnail
+        long ifd0 = tiff + readInt(tiff + 4);
+        if (ifd0 + 2 > end) {
+            return false;
+        }
+        int ifd0Entries = readShort((int) ifd0);
+        long next = ifd0 + 2 + 12L * ifd0Entries;
+        if (next + 4 > end) {
+            return false;
+        }
+        long ifd1Offset = readInt((int) next);
+        if (ifd1Offset == 0) {
+            return false;
+        }
+        long ifd1 = tiff + ifd1Offset;
+        if (ifd1 + 2 > end) {
+            return false;
+        }
+        int ifd1Entries = readShort((int) ifd1);
+        long thumbnailOffset = -1;
+        long thumbnailLength = -1;
+        for (int i = 0; i < ifd1Entries; i++) {
+            long entry = ifd1 + 2 + 12L * i;
+            if (entry + 12 > end) {
+                return false;
+            }
+            int tag = readShort((int) entry);
+            int type = readShort((int) entry + 2);
+            // LONG values are stored in place, some writers use SHORT
+            long value = type == 3 ? readShort((int) entry + 8) : readInt((int) entry + 8);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                thumbnailOffset = value;
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                thumbnailLength = value;
+            }
+        }
+        if (thumbnailOffset <= 0 || thumbnailLength <= 0
+                || tiff + thumbnailOffset + thumbnailLength > end) {
+            return false;
+        }
+        mThumbnailOffset = (int) (tiff + thumbnailOffset);
+        mThumbnailLength = (int) thumbnailLength;
+        return true;
+    }
+
+    private int readShort(int pos) {
+        int b0 = mBuffer[pos] & 0xff;
+        int b1 = mBuffer[pos + 1] & 0xff;
+        return mLittleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private long readInt(int pos) {
+        long b0 = mBuffer[pos] & 0xff;
+        long b1 = mBuffer[pos + 1] & 0xff;
+        long b2 = mBuffer[pos + 2] & 0xff;
+        long b3 = mBuffer[pos + 3] & 0xff;
+        return mLittleEndian
+                ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0
+                : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+}
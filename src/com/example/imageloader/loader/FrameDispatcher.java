@@ -0,0 +1,137 @@
+package com.example.imageloader.loader;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Hands finished loads to the main thread in batches, one per frame,
+ * instead of posting a message per image. After a fling dozens of loads
+ * finish at once; as separate messages they would run between input, layout
+ * and draw and push the next frame past its vsync.
+ * <p>
+ * Any thread may {@link #dispatch} a {@link Delivery}. From API 16 on a
+ * batch runs in a {@link Choreographer} frame callback, right before the
+ * frame is laid out and drawn, older versions fall back to one Handler
+ * message per batch. A batch first drops every delivery whose view moved
+ * on, then delivers the rest until the budget of the frame is used up and
+ * leaves what remains for the next frame.
+ */
+class FrameDispatcher {
+    // a quarter of a 60 fps frame, the rest is left to input, layout and draw
+    static final long DEFAULT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    /**
+     * A result for the main thread.
+     */
+    interface Delivery {
+        /**
+         * True if nobody waits for the result any more, e.g. the view was
+         * bound to another url.
+         */
+        boolean isStale();
+
+        void deliver();
+
+        /**
+         * Called instead of {@link #deliver()} for a stale delivery.
+         */
+        void drop();
+    }
+
+    private final ConcurrentLinkedQueue<Delivery> mQueue = new ConcurrentLinkedQueue<Delivery>();
+    // deliveries left over from the last frame, only used on the main thread
+    private final ArrayDeque<Delivery> mPending = new ArrayDeque<Delivery>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mBudgetNanos;
+    // from API 16 on, created on the main thread
+    private volatile FrameCallbackScheduler mFrameScheduler;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && mFrameScheduler == null) {
+                // the next batches wait for frames
+                mFrameScheduler = new FrameCallbackScheduler();
+            }
+            drain();
+        }
+    };
+
+    FrameDispatcher(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && Looper.myLooper() == Looper.getMainLooper()) {
+            mFrameScheduler = new FrameCallbackScheduler();
+        }
+    }
+
+    void dispatch(Delivery delivery) {
+        mQueue.offer(delivery);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        FrameCallbackScheduler frameScheduler = mFrameScheduler;
+        if (frameScheduler != null) {
+            frameScheduler.schedule();
+        } else {
+            mHandler.post(mDrainRunnable);
+        }
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        Delivery delivery;
+        while ((delivery = mQueue.poll()) != null) {
+            if (delivery.isStale()) {
+                delivery.drop();
+            } else {
+                mPending.add(delivery);
+            }
+        }
+        // at least one per frame, however slow
+        while ((delivery = mPending.poll()) != null) {
+            // the view may have been rebound since an earlier frame
+            if (delivery.isStale()) {
+                delivery.drop();
+            } else {
+                delivery.deliver();
+            }
+            if (System.nanoTime() - start > mBudgetNanos) {
+                break;
+            }
+        }
+        // cleared before looking at the queues, so no dispatch goes unnoticed
+        mScheduled.set(false);
+        if (!mPending.isEmpty() || !mQueue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class FrameCallbackScheduler implements Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        void schedule() {
+            // safe from any thread
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drain();
+        }
+    }
+}
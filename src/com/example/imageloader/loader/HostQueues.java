@@ -0,0 +1,91 @@
+package com.example.imageloader.loader;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import com.example.imageloader.loader.net.HostBusyException;
+
+/**
+ * Network stages parked because their host had no free slot in the
+ * {@link com.example.imageloader.loader.net.Fetcher}, see
+ * {@link HostBusyException}. A parked task holds no thread; whenever a
+ * network stage for the same host ends, the next parked task of that host
+ * is handed back to the pool.
+ */
+class HostQueues {
+    private final HashMap<String, Host> mHosts = new HashMap<String, Host>();
+
+    private static class Host {
+        // network stages of this loader running against the host
+        int running;
+        final ArrayDeque<Runnable> parked = new ArrayDeque<Runnable>();
+    }
+
+    /**
+     * Counts a network stage that is about to fetch from {@code host}.
+     */
+    synchronized void start(String host) {
+        Host entry = mHosts.get(host);
+        if (entry == null) {
+            entry = new Host();
+            mHosts.put(host, entry);
+        }
+        entry.running++;
+    }
+
+    /**
+     * Ends a network stage started with {@link #start}.
+     *
+     * @return the next parked task of {@code host}, or null. It is counted
+     *     as running already and must not call {@link #start} again.
+     */
+    synchronized Runnable finish(String host) {
+        Host entry = mHosts.get(host);
+        Runnable next = entry.parked.poll();
+        if (next == null) {
+            entry.running--;
+            removeIfIdle(host, entry);
+        }
+        return next;
+    }
+
+    /**
+     * Ends a network stage started with {@link #start} that found its host
+     * busy and parks it until another stage for the host ends. Nothing is
+     * parked if no other stage of this loader runs against the host, since
+     * none would wake it: the slots were freed meanwhile or are held by
+     * another user of the fetcher.
+     *
+     * @return false if the task was not parked
+     */
+    synchronized boolean park(String host, Runnable task) {
+        Host entry = mHosts.get(host);
+        entry.running--;
+        if (entry.running == 0) {
+            removeIfIdle(host, entry);
+            return false;
+        }
+        entry.parked.add(task);
+        return true;
+    }
+
+    /**
+     * Removes a parked task.
+     *
+     * @return true if the task was parked
+     */
+    synchronized boolean remove(String host, Runnable task) {
+        Host entry = mHosts.get(host);
+        if (entry == null || !entry.parked.remove(task)) {
+            return false;
+        }
+        removeIfIdle(host, entry);
+        return true;
+    }
+
+    private void removeIfIdle(String host, Host entry) {
+        if (entry.running == 0 && entry.parked.isEmpty()) {
+            mHosts.remove(host);
+        }
+    }
+}
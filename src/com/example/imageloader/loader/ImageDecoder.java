@@ -0,0 +1,34 @@
+package com.example.imageloader.loader;
+
+import android.graphics.Bitmap;
+
+/**
+ * Turns the encoded bytes of an image into a bitmap for the decode stage of
+ * {@link ImageLoader}, e.g. to plug in a decoder for a format the platform
+ * lacks. Called from several decode threads at once.
+ */
+public interface ImageDecoder {
+    /**
+     * Sampled decoding with {@link BitmapPool} reuse, see
+     * {@link ImageUtils#decodeSampledBitmapFromByteArray}.
+     */
+    ImageDecoder DEFAULT = new ImageDecoder() {
+        @Override
+        public Bitmap decode(byte[] data, int offset, int length, int reqWidth, int reqHeight,
+                BitmapPool pool) {
+            return ImageUtils.decodeSampledBitmapFromByteArray(data, offset, length,
+                    reqWidth, reqHeight, pool);
+        }
+    };
+
+    /**
+     * Decodes {@code length} bytes at {@code offset}, at least as large as
+     * the requested size if the image is. {@link Integer#MAX_VALUE} asks for
+     * the full size.
+     *
+     * @param pool bitmaps to decode into, may be null
+     * @return the bitmap, or null if the bytes are no image
+     */
+    Bitmap decode(byte[] data, int offset, int length, int reqWidth, int reqHeight,
+            BitmapPool pool);
+}
@@ -1,25 +1,41 @@
 package com.example.imageloader.loader;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.example.imageloader.loader.processor.ImageProcessor;
+import com.example.imageloader.loader.ThreadPoolManager.Stage;
+import com.example.imageloader.loader.cache.MemoryCache;
+import com.example.imageloader.loader.metrics.Counter;
+import com.example.imageloader.loader.metrics.LoadTrace;
+import com.example.imageloader.loader.metrics.LoaderMetrics;
+import com.example.imageloader.loader.metrics.Timing;
+import com.example.imageloader.loader.net.Fetcher;
+import com.example.imageloader.loader.net.HostBusyException;
+import com.example.imageloader.loader.processor.ImageProcessor;
+import com.example.imageloader.loader.processor.ProcessorChain;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Environment;
-
-import android.os.Handler;
-import android.os.Message;
+import android.os.Build;
+
+import android.os.SystemClock;
 import android.text.TextUtils;
-import android.util.LruCache;
 import android.widget.ImageView;
 
 /**
@@ -31,128 +47,1165 @@ import android.widget.ImageView;
  */
 public class ImageLoader {
     private static final int KB = 1024;
-    private static ImageLoader sImageLoader;
-    private LruCache<String, Bitmap> mMemLruCache;
-    private DiskLruCache mDiskLruCache;
-    private final Object mDiskCacheLock = new Object();
-    private boolean mDiskCacheStarting = true;
-    private static final String DISK_CACHE_SUBDIR = "thumbnails";
+    // published once, get() only locks while it is still null
+    private static volatile ImageLoader sImageLoader;
+    // directories of the disk caches opened by loaders, two caches on one directory corrupt each other
+    private static final HashSet<File> sDiskCacheDirs = new HashSet<File>();
+    private final ImageLoaderConfig mConfig;
+    // made by the MemoryCacheFactory of the config, by default W-TinyLFU, so a fling through
+    // unique images does not flush the ones shown on every screen
+    private MemoryCache<String, Bitmap> mMemLruCache;
+    private ShardedDiskLruCache mDiskLruCache;
+    // independent disk cache shards, so disk stage threads rarely share a lock
+    private static final int DISK_CACHE_SHARDS = 4;
+    // every entry holds the image and its CacheMetadata
+    private static final int DISK_CACHE_VALUE_COUNT = 2;
+    // results of LoadTask.downloadToDiskCache() and LoadTask.tryDownload()
+    private static final int DOWNLOAD_FAILED = 0;
+    private static final int DOWNLOAD_NEW = 1;
+    private static final int DOWNLOAD_NOT_MODIFIED = 2;
+    private static final int DOWNLOAD_HOST_BUSY = 3;
+    // downloaded into mData, the disk cache could not take the entry
+    private static final int DOWNLOAD_IN_MEMORY = 4;
+    // the task finished without a download
+    private static final int DOWNLOAD_SKIPPED = 5;
+    // the loader whose memory tier this one uses and which sizes it, itself unless shared
+    private ImageLoader mMemoryOwner;
+    // the memory cache size when memory is not tight, in KB
     private int mMaxMemCacheSize;
-    private int mMaxDiskCacheSize;
+    private MemorySizePolicy mMemorySizePolicy;
+    // the last trim level and heap pressure, guarded by mMemorySizeLock
+    private final Object mMemorySizeLock = new Object();
+    private int mTrimLevel;
+    private long mTrimTime;
+    private boolean mHeapUnderPressure;
+    private long mLastHeapCheck;
+    // how often the heap is looked at after decodes
+    private static final long HEAP_CHECK_INTERVAL_MS = 1000;
+    // running trim levels are forgotten after this long without heap pressure
+    private static final long TRIM_RECOVERY_MS = 30 * 1000;
+    private long mMaxDiskCacheSize;
+    private int mMaxBitmapPoolSize;
+    private BitmapPool mBitmapPool;
+    private int mMaxByteArrayPoolSize;
+    // arrays disk cache hits are read into
+    private ByteArrayPool mByteArrayPool;
+    // encoded bytes of recent disk reads off the Java heap, null if the config has no budget for it
+    private EncodedMemoryCache mEncodedCache;
+    // bitmaps set on or being posted to a view, kept out of mMemLruCache meanwhile
+    private ActiveResources mActiveResources;
     private ThreadPoolManager mThreadPoolManager;
-    private ArrayList<ImageProcessor> mImageProcessorList;
+    private volatile ProcessorChain mProcessorChain = ProcessorChain.EMPTY;
+    private volatile Fetcher mFetcher;
+    private final ImageDecoder mDecoder;
+    private final CacheKeyFunction mKeyFunction;
+    // show the Exif thumbnail of an image while its body is still downloading
+    private volatile boolean mProgressive;
+    // prefetches allowed in the network stage at once, the rest of it stays free for visible loads
+    private static final int PREFETCH_NETWORK_SLOTS = 2;
+    private final Semaphore mPrefetchNetworkSlots = new Semaphore(PREFETCH_NETWORK_SLOTS);
+    // network stages waiting for a free slot of their host, without a thread
+    private final HostQueues mHostQueues = new HostQueues();
+    // prefetches only decode into the memory cache while it is less full than this
+    private static final float PREFETCH_MEMORY_FRACTION = 0.75f;
+    private final LoaderMetrics mMetrics = new LoaderMetrics();
+    // sets finished loads on their views in batches, once per frame
+    private final FrameDispatcher mFrameDispatcher =
+            new FrameDispatcher(FrameDispatcher.DEFAULT_BUDGET_NANOS);
+    // url key -> the task currently loading it
+    private final HashMap<String, LoadTask> mInFlightTasks = new HashMap<String, LoadTask>();
 
-    private ImageLoader(Context context) {
-        init(context);
+    /**
+     * Creates a loader besides the default one of {@link #get}, e.g. one with
+     * a larger disk cache for a full screen viewer.
+     *
+     * @throws IllegalStateException if another loader owns the disk cache
+     *     directory of {@code config}
+     */
+    public ImageLoader(ImageLoaderConfig config) {
+        mConfig = config;
+        mFetcher = config.getFetcher();
+        mDecoder = config.getDecoder();
+        mKeyFunction = config.getKeyFunction();
+        init(config.getContext());
     }
 
+    /**
+     * Returns the default loader, created with the defaults of
+     * {@link ImageLoaderConfig.Builder} unless {@link #initialize} came
+     * first. Only the call that creates it takes a lock.
+     */
     public static ImageLoader get(Context context) {
-        if (sImageLoader == null) {
-            sImageLoader = new ImageLoader(context);
+        ImageLoader loader = sImageLoader;
+        if (loader == null) {
+            synchronized (ImageLoader.class) {
+                loader = sImageLoader;
+                if (loader == null) {
+                    loader = new ImageLoader(new ImageLoaderConfig.Builder(context).build());
+                    sImageLoader = loader;
+                }
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Creates the default loader of {@link #get} with {@code config}, e.g.
+     * in {@code Application.onCreate()}.
+     *
+     * @throws IllegalStateException if the default loader exists already
+     */
+    public static void initialize(ImageLoaderConfig config) {
+        synchronized (ImageLoader.class) {
+            if (sImageLoader != null) {
+                throw new IllegalStateException("the default ImageLoader exists already");
+            }
+            sImageLoader = new ImageLoader(config);
         }
-        return sImageLoader;
     }
 
     private void init(Context context) {
-        initMaxCacheSize();
-        initLruCache();
-        initDiskLruCache(context);
+        ImageLoader memoryOwner = mConfig.getMemorySharedWith();
+        if (memoryOwner != null) {
+            // the pools and active bitmaps go with the cache, its evictions recycle into them
+            mMemoryOwner = memoryOwner.mMemoryOwner;
+            mMemLruCache = mMemoryOwner.mMemLruCache;
+            mActiveResources = mMemoryOwner.mActiveResources;
+            mBitmapPool = mMemoryOwner.mBitmapPool;
+            mByteArrayPool = mMemoryOwner.mByteArrayPool;
+            mEncodedCache = mMemoryOwner.mEncodedCache;
+        } else {
+            mMemoryOwner = this;
+            mMemorySizePolicy = mConfig.getMemorySizePolicy();
+            mActiveResources = new ActiveResources();
+            initMaxCacheSize();
+            initLruCache();
+            registerTrimCallbacks(context);
+        }
+        ImageLoader diskOwner = mConfig.getDiskSharedWith();
+        if (diskOwner != null) {
+            mDiskLruCache = diskOwner.mDiskLruCache;
+        } else {
+            mMaxDiskCacheSize = mConfig.getDiskCacheSize();
+            initDiskLruCache();
+        }
         initThreadPool();
     }
 
-    public void addImageProcessor(ImageProcessor processor) {
-        if (mImageProcessorList == null) {
-            mImageProcessorList = new ArrayList<ImageProcessor>();
+    public ImageLoaderConfig getConfig() {
+        return mConfig;
+    }
+
+    private void registerTrimCallbacks(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            // before API 14 the app has to forward onLowMemory() itself
+            return;
+        }
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                ImageLoader.this.onTrimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                ImageLoader.this.onLowMemory();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    /**
+     * Appends {@code processor} to the chain applied to every image decoded
+     * from then on. Processed images are cached under the key of the chain.
+     */
+    public synchronized void addImageProcessor(ImageProcessor processor) {
+        mProcessorChain = mProcessorChain.append(processor);
+    }
+
+    /**
+     * Replaces the {@link Fetcher} of the network stage, e.g. with one that
+     * multiplexes over HTTP/2. Requests already sent finish on the old one.
+     */
+    public void setFetcher(Fetcher fetcher) {
+        if (fetcher == null) {
+            throw new NullPointerException("fetcher == null");
         }
-        mImageProcessorList.add(processor);
+        mFetcher = fetcher;
     }
 
-    private String getUrlKey(String url) {
-        String urlKey = LoaderUtils.encodeMd5(url);
-        return urlKey;
+    /**
+     * Turns the progressive mode on or off. In it, a JPEG downloaded from the
+     * network is first shown as the thumbnail embedded in its Exif header,
+     * which arrives with the first KB of the body, and then replaced by the
+     * full image. Loads with processors never show a preview, it would not
+     * look like their result.
+     */
+    public void setProgressive(boolean progressive) {
+        mProgressive = progressive;
     }
 
-    public void load(ImageView imageView, String url, int defaultRes) {
-        String urlKey = LoaderUtils.encodeMd5(url);
-        if (TextUtils.isEmpty(urlKey)) {
-            return;
+    /**
+     * Per-stage timings, hit ratios and byte counts of the loads, on by
+     * default.
+     */
+    public LoaderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public ImageRequest load(ImageView imageView, String url, int defaultRes) {
+        return load(imageView, url, defaultRes, Priority.VISIBLE);
+    }
+
+    /**
+     * Binds {@code url} to {@code imageView}. Any earlier request of the view
+     * is cancelled, so a recycled list row stops loading its old image.
+     *
+     * @return a handle that can cancel the load, or null if the url is empty
+     */
+    public ImageRequest load(ImageView imageView, String url, int defaultRes, Priority priority) {
+        return load(imageView, url, defaultRes, ImageUtils.getTargetWidth(imageView),
+                ImageUtils.getTargetHeight(imageView), priority);
+    }
+
+    /**
+     * Like {@link #load(ImageView, String, int, Priority)}, but decodes for an
+     * explicit size instead of the measured size of the view.
+     */
+    public ImageRequest load(ImageView imageView, String url, int defaultRes,
+            int reqWidth, int reqHeight, Priority priority) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        onForeground();
+        ProcessorChain processorChain = mProcessorChain;
+        // the only key derived on the main thread, the disk keys are made by the task
+        String cacheKey = getCacheKey(LoaderUtils.hash128(mKeyFunction.getKey(url)), reqWidth,
+                reqHeight, processorChain);
+        Object tag = imageView.getTag();
+        ImageRequest previous = null;
+        if (tag instanceof ImageRequest) {
+            previous = (ImageRequest) tag;
+            if (!previous.isCancelled() && TextUtils.equals(previous.getCacheKey(), cacheKey)) {
+                // the view is rebound to the url it is already loading
+                raisePriority(previous, priority);
+                return previous;
+            }
+            previous.cancel();
         }
-        Bitmap bmp = getBitmapFromMemory(urlKey);
+        ImageRequest request = new ImageRequest(this, imageView, url, cacheKey,
+                reqWidth, reqHeight, processorChain, priority);
+        imageView.setTag(request);
+        Bitmap bmp = acquireBitmapFromMemory(cacheKey);
         if (bmp != null) {
+            mMetrics.increment(Counter.MEMORY_HIT);
+            request.setBitmap(bmp);
             imageView.setImageBitmap(bmp);
         } else {
+            mMetrics.increment(Counter.MEMORY_MISS);
             imageView.setImageResource(defaultRes);
-            imageView.setTag(url);
-            loadBitmapAsync(imageView, url, urlKey);
+            loadBitmapAsync(request);
         }
+        if (previous != null) {
+            // only now that the view shows something else may its old bitmap be reused
+            releaseBitmap(previous.getCacheKey(), previous.takeBitmap());
+        }
+        return request;
     }
 
-    private void loadBitmapAsync(final ImageView imageView, final String url, final String urlKey) {
-        mThreadPoolManager.addTask(new Runnable() {
-            @Override
-            public void run() {
-                Bitmap bmp = getBitmapFromDiskCache(urlKey);
-                if (bmp != null) {
-                    addBitmapToMemCache(url, bmp);
-                    PostAndSetBitmap(imageView, bmp, url);
+    public ImageRequest prefetch(String url, int targetWidth, int targetHeight, boolean intoMemory) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        ProcessorChain processorChain = mProcessorChain;
+        String cacheKey = getCacheKey(LoaderUtils.hash128(mKeyFunction.getKey(url)), targetWidth,
+                targetHeight, processorChain);
+        ImageRequest request = new ImageRequest(this, url, cacheKey, targetWidth, targetHeight,
+                processorChain, intoMemory);
+        loadBitmapAsync(request);
+        return request;
+    }
+
+    /**
+     * Loads {@code urls} ahead of time at {@link Priority#PREFETCH}, without
+     * a view. The images go to the disk cache and, if {@code intoMemory}, are
+     * decoded for the target size into the memory cache, so a later load()
+     * for a view of that size is a memory hit.
+     * <p>
+     * Prefetches never compete with visible loads: only
+     * {@link #PREFETCH_NETWORK_SLOTS} of them download at once and the ones
+     * over that are dropped, and they only fill the memory cache while it has
+     * room to spare and memory is not tight, otherwise they stop at the disk
+     * cache. Cancel the returned requests once the images are not needed
+     * soon any more, see {@link ListPrefetcher}.
+     *
+     * @return one request per url, null for empty urls
+     */
+    public List<ImageRequest> prefetch(List<String> urls, int targetWidth, int targetHeight,
+            boolean intoMemory) {
+        List<ImageRequest> requests = new ArrayList<ImageRequest>(urls.size());
+        for (String url : urls) {
+            requests.add(prefetch(url, targetWidth, targetHeight, intoMemory));
+        }
+        return requests;
+    }
+
+    /**
+     * The memory cache holds bitmaps decoded for a size and processed by a
+     * chain, so its key is the {@link LoaderUtils#hash128} of the key of the
+     * url plus both. The disk cache keeps the original under the md5 of the
+     * url and the processed image under the md5 of this key.
+     */
+    private static String getCacheKey(String urlHash, int reqWidth, int reqHeight,
+            ProcessorChain processorChain) {
+        String cacheKey = urlHash + "_" + reqWidth + "x" + reqHeight;
+        if (!processorChain.isEmpty()) {
+            cacheKey += "_" + processorChain.getKey();
+        }
+        return cacheKey;
+    }
+
+    private void loadBitmapAsync(ImageRequest request) {
+        String cacheKey = request.getCacheKey();
+        synchronized (mInFlightTasks) {
+            LoadTask task = mInFlightTasks.get(cacheKey);
+            if (task != null) {
+                // the same url is already being loaded, just wait for its result
+                task.addRequest(request);
+                return;
+            }
+            // a task may have finished between the memory check in load() and here
+            Bitmap bmp = acquireBitmapFromMemory(cacheKey);
+            if (bmp != null) {
+                PostAndSetBitmap(request, bmp, null);
+                releaseBitmap(cacheKey, bmp);
+                return;
+            }
+            task = new LoadTask(request);
+            task.addRequest(request);
+            mInFlightTasks.put(cacheKey, task);
+            mThreadPoolManager.addTask(task);
+        }
+    }
+
+    private void raisePriority(ImageRequest request, Priority priority) {
+        synchronized (mInFlightTasks) {
+            LoadTask task = mInFlightTasks.get(request.getCacheKey());
+            if (task != null) {
+                task.raisePriority(priority);
+            }
+        }
+    }
+
+    /**
+     * Keeps the bitmap the request delivered active, the view may still show
+     * it. load() releases it once the view is bound to something else.
+     */
+    void cancel(ImageRequest request) {
+        synchronized (mInFlightTasks) {
+            LoadTask task = mInFlightTasks.get(request.getCacheKey());
+            if (task == null || !task.removeRequest(request)) {
+                return;
+            }
+            if (task.hasRequests()) {
+                return;
+            }
+            // nobody waits for this url any more
+            task.cancel();
+            mInFlightTasks.remove(request.getCacheKey());
+        }
+    }
+
+    /**
+     * Loads one url for every request waiting on it. Later load() calls for
+     * the same url attach themselves to the running task instead of starting
+     * another one, see {@link #loadBitmapAsync}.
+     */
+    private class LoadTask implements PriorityTask {
+        private final String mUrl;
+        private final String mCacheKey;
+        // the key of the task in mHostQueues
+        private final String mHost;
+        private final int mReqWidth;
+        private final int mReqHeight;
+        private final ProcessorChain mProcessorChain;
+        // disk cache keys, derived once by the first disk stage
+        private String mUrlKey;
+        // disk cache key of the processed image, null without processors
+        private String mProcessedKey;
+        // guarded by mInFlightTasks
+        private final ArrayList<ImageRequest> mRequests = new ArrayList<ImageRequest>();
+        private volatile boolean mCancelled;
+        private volatile Priority mPriority = Priority.PREFETCH;
+        // the stage to run next; the pool hand-off publishes it to the next thread
+        private Stage mStage = Stage.DISK;
+        // encoded image read by the disk or network stage for the decode stage
+        private ByteBuffer mData;
+        // set once the download was written through to the disk cache
+        private boolean mDownloaded;
+        // mData is the already processed image
+        private boolean mDataProcessed;
+        // metadata of the url entry, read by the disk stage and refreshed by the network stage
+        private CacheMetadata mMetadata;
+        // set once the network stage revalidated the entry or failed, stale entries then do
+        private boolean mAcceptStale;
+        // set while the task holds one of mPrefetchNetworkSlots
+        private final AtomicBoolean mHoldsNetworkSlot = new AtomicBoolean();
+        // set while the task is counted as running against mHost in mHostQueues
+        private boolean mCountedForHost;
+        private final LoadTrace mTrace;
+        // when the task was queued for its stage and when the stage started running
+        private long mQueuedAt;
+        private long mStageStart;
+
+        LoadTask(ImageRequest request) {
+            mUrl = request.getUrl();
+            mCacheKey = request.getCacheKey();
+            mHost = Uri.parse(mUrl).getHost();
+            mReqWidth = request.getReqWidth();
+            mReqHeight = request.getReqHeight();
+            mProcessorChain = request.getProcessorChain();
+            mTrace = new LoadTrace(mUrl);
+            mQueuedAt = System.nanoTime();
+        }
+
+        void addRequest(ImageRequest request) {
+            mRequests.add(request);
+            raisePriority(request.getPriority());
+        }
+
+        /**
+         * A task runs at the most urgent priority of the requests waiting on it.
+         */
+        void raisePriority(Priority priority) {
+            if (priority.compareTo(mPriority) < 0) {
+                mPriority = priority;
+                mThreadPoolManager.updatePriority(this);
+            }
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        boolean removeRequest(ImageRequest request) {
+            return mRequests.remove(request);
+        }
+
+        boolean hasRequests() {
+            return !mRequests.isEmpty();
+        }
+
+        /**
+         * Drops the task from the pool queues or {@link #mHostQueues} if it
+         * is waiting for a stage, otherwise it stops before its next stage.
+         */
+        void cancel() {
+            mCancelled = true;
+            if (mThreadPoolManager.removeTask(this)) {
+                // run() never comes, and no pool thread touches mData any more
+                releaseData();
+                releaseNetworkSlot();
+                releaseHost();
+            } else if (mHostQueues.remove(mHost, this)) {
+                releaseNetworkSlot();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                releaseData();
+                releaseNetworkSlot();
+                releaseHost();
+                return;
+            }
+            mStageStart = System.nanoTime();
+            mTrace.add(Timing.QUEUE_WAIT, mStageStart - mQueuedAt);
+            switch (mStage) {
+                case DISK:
+                    if (mUrlKey == null) {
+                        mUrlKey = LoaderUtils.encodeMd5(mKeyFunction.getKey(mUrl));
+                        mProcessedKey = mProcessorChain.isEmpty() ? null : LoaderUtils.encodeMd5(mCacheKey);
+                    }
+                    boolean memoryPrefetch = canPrefetchIntoMemory();
+                    if (!isBitmapWanted(memoryPrefetch)
+                            && (mDownloaded || mAcceptStale || isFreshInDiskCache(mUrlKey))
+                            && finishUnlessWanted(memoryPrefetch)) {
+                        // a prefetch for the disk cache only, which has the image now
+                        break;
+                    }
+                    if (mProcessedKey != null && !mDownloaded) {
+                        mData = readFromEncodedCache(mProcessedKey);
+                        if (mData == null) {
+                            mData = readFromDiskCache(mProcessedKey);
+                        }
+                        if (mData != null) {
+                            mDataProcessed = true;
+                            moveTo(Stage.DECODE);
+                            break;
+                        }
+                    }
+                    mData = readFromEncodedCache(mUrlKey);
+                    if (mData == null) {
+                        mData = readFromDiskCache(mUrlKey);
+                    }
+                    if (mData != null) {
+                        moveTo(Stage.DECODE);
+                    } else if (!mDownloaded && !mAcceptStale) {
+                        if (mPriority == Priority.PREFETCH && !acquireNetworkSlot()
+                                && finishUnlessWanted(false)) {
+                            // the network budget of prefetches is spent, they are best effort
+                            break;
+                        }
+                        // missing or stale, mMetadata holds the validators of a stale entry
+                        mMetrics.increment(Counter.DISK_MISS);
+                        moveTo(Stage.NETWORK);
+                    } else {
+                        finish(null);
+                    }
+                    break;
+                case NETWORK:
+                    boolean parked = false;
+                    try {
+                        parked = download();
+                    } finally {
+                        if (!parked) {
+                            releaseNetworkSlot();
+                        }
+                    }
+                    break;
+                case DECODE:
+                    Bitmap bmp;
+                    boolean processed = false;
+                    byte[] data = mData.array();
+                    int offset = mData.arrayOffset() + mData.position();
+                    int length = mData.remaining();
+                    long decodeStart = System.nanoTime();
+                    if (mDataProcessed) {
+                        bmp = mDecoder.decode(data, offset, length, Integer.MAX_VALUE,
+                                Integer.MAX_VALUE, mBitmapPool);
+                        mTrace.add(Timing.DECODE, System.nanoTime() - decodeStart);
+                    } else {
+                        bmp = mDecoder.decode(data, offset, length,
+                                mProcessorChain.getDecodeWidth(mReqWidth),
+                                mProcessorChain.getDecodeHeight(mReqHeight), mBitmapPool);
+                        long processStart = System.nanoTime();
+                        mTrace.add(Timing.DECODE, processStart - decodeStart);
+                        if (bmp != null && !mProcessorChain.isEmpty()) {
+                            bmp = mProcessorChain.process(bmp, mBitmapPool);
+                            processed = true;
+                            mTrace.add(Timing.PROCESS, System.nanoTime() - processStart);
+                        }
+                    }
+                    mMetrics.add(Counter.BYTES_DECODED, length);
+                    releaseData();
+                    checkHeapPressure();
+                    if (bmp == null) {
+                        finish(null);
+                        break;
+                    }
+                    mMetrics.add(Counter.BITMAP_BYTES, bmp.getByteCount());
+                    // keep the bitmap out of the pool while it is compressed below
+                    acquireBitmap(mCacheKey, bmp);
+                    finish(bmp);
+                    if (processed) {
+                        // after delivery, the views do not wait for the compression
+                        addProcessedBitmapToDiskCache(mProcessedKey, bmp,
+                                mMetadata != null ? mMetadata : CacheMetadata.EMPTY);
+                    }
+                    // the bitmap is already paid for, it goes to the memory cache
+                    // even if cancelled meanwhile
+                    releaseBitmap(mCacheKey, bmp);
+                    break;
+            }
+        }
+
+        /**
+         * The network stage: downloads into the disk cache and goes back to
+         * the disk stage, or falls back to the stale entry on failure. If
+         * the host has no free slot the task is parked in
+         * {@link #mHostQueues} instead of holding the thread.
+         *
+         * @return true if the task was parked, another thread may run it
+         *     already
+         */
+        private boolean download() {
+            if (!mCountedForHost) {
+                mHostQueues.start(mHost);
+                mCountedForHost = true;
+            }
+            int result = tryDownload();
+            if (result == DOWNLOAD_HOST_BUSY) {
+                mCountedForHost = false;
+                if (mHostQueues.park(mHost, this)) {
+                    // the next network stage for the host to end hands the task back
+                    return true;
+                }
+                // nothing of ours runs against the host, its slots just came free or are not ours
+                mHostQueues.start(mHost);
+                mCountedForHost = true;
+                result = tryDownload();
+            }
+            // before the hand-off below, another thread may run the task from then on
+            releaseHost();
+            if (result == DOWNLOAD_SKIPPED) {
+                return false;
+            } else if (result == DOWNLOAD_NEW) {
+                mDownloaded = true;
+                moveTo(Stage.DISK);
+                return false;
+            } else if (result == DOWNLOAD_IN_MEMORY) {
+                moveTo(Stage.DECODE);
+                return false;
+            } else if (result == DOWNLOAD_NOT_MODIFIED) {
+                if (mProcessedKey != null) {
+                    // made from the same bytes, so just as fresh
+                    updateMetadata(mProcessedKey, mMetadata);
+                }
+                if (mEncodedCache != null) {
+                    mEncodedCache.setMetadata(mUrlKey, mMetadata);
+                    if (mProcessedKey != null) {
+                        mEncodedCache.setMetadata(mProcessedKey, mMetadata);
+                    }
+                }
+                mAcceptStale = true;
+                moveTo(Stage.DISK);
+                return false;
+            }
+            if (result == DOWNLOAD_HOST_BUSY) {
+                mMetrics.increment(Counter.NETWORK_FAILURE);
+            }
+            if (mMetadata != null) {
+                // offline or the server failed, a stale image beats none
+                mAcceptStale = true;
+                moveTo(Stage.DISK);
+                return false;
+            }
+            finish(null);
+            return false;
+        }
+
+        /**
+         * Fetches {@link #mUrl} once, into the disk cache or, if it cannot
+         * take the entry now, into {@link #mData}.
+         *
+         * @return one of the DOWNLOAD_ results
+         */
+        private int tryDownload() {
+            DiskLruCache.Editor editor = getDiskCacheEditor(mUrlKey);
+            if (editor != null) {
+                // read the file back in the disk stage, so the body is kept only once
+                return downloadToDiskCache(editor);
+            }
+            // the shard of the key is not open yet or another edit of it is running
+            if (finishUnlessWanted(canPrefetchIntoMemory())) {
+                // a prefetch for the disk cache, which cannot take the image now
+                return DOWNLOAD_SKIPPED;
+            }
+            try {
+                byte[] data = getBytesFromHttp(mUrl, mTrace);
+                if (data == null) {
+                    return DOWNLOAD_FAILED;
+                }
+                mData = ByteBuffer.wrap(data);
+                return DOWNLOAD_IN_MEMORY;
+            } catch (HostBusyException e) {
+                return DOWNLOAD_HOST_BUSY;
+            }
+        }
+
+        /**
+         * Ends the count of the task in {@link #mHostQueues} and hands the
+         * next task parked for the host back to the network pool.
+         */
+        private void releaseHost() {
+            if (!mCountedForHost) {
+                return;
+            }
+            mCountedForHost = false;
+            LoadTask next = (LoadTask) mHostQueues.finish(mHost);
+            if (next != null) {
+                next.mCountedForHost = true;
+                mThreadPoolManager.handOff(Stage.NETWORK, next);
+            }
+        }
+
+        /**
+         * Like {@link #readFromDiskCache}, from {@link #mEncodedCache}.
+         */
+        private ByteBuffer readFromEncodedCache(String key) {
+            if (mEncodedCache == null) {
+                return null;
+            }
+            CacheMetadata metadata = mEncodedCache.getMetadata(key);
+            if (metadata == null
+                    || (!mAcceptStale && !metadata.isFresh(System.currentTimeMillis()))) {
+                // missing, or stale and left to the disk stage to revalidate
+                return null;
+            }
+            ByteBuffer data = mEncodedCache.get(key, mByteArrayPool);
+            if (data != null) {
+                if (key.equals(mUrlKey)) {
+                    mMetadata = metadata;
+                }
+                mMetrics.increment(Counter.ENCODED_HIT);
+            }
+            return data;
+        }
+
+        /**
+         * Reads the image of {@code key} in one go into an array of
+         * {@link #mByteArrayPool}, or returns null if there is none or it is
+         * stale and stale entries are not accepted yet. The metadata of the
+         * url entry is kept for revalidation.
+         */
+        private ByteBuffer readFromDiskCache(String key) {
+            DiskLruCache.Snapshot snapshot = null;
+            try {
+                snapshot = mDiskLruCache.get(key);
+                if (snapshot == null) {
+                    return null;
+                }
+                CacheMetadata metadata = CacheMetadata.decode(snapshot.getString(1));
+                if (key.equals(mUrlKey)) {
+                    mMetadata = metadata;
+                }
+                if (!mAcceptStale && !metadata.isFresh(System.currentTimeMillis())) {
+                    return null;
+                }
+                ByteBuffer data = snapshot.read(0, mByteArrayPool);
+                if (!mDownloaded && !mAcceptStale) {
+                    mMetrics.increment(Counter.DISK_HIT);
+                }
+                if (mEncodedCache != null) {
+                    // the next load of the image skips the file
+                    mEncodedCache.put(key, data.array(), 0, data.remaining(), metadata);
+                }
+                return data;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+            }
+        }
+
+        /**
+         * Reads only the metadata of {@code key} and keeps it like
+         * {@link #readFromDiskCache} does.
+         */
+        private boolean isFreshInDiskCache(String key) {
+            DiskLruCache.Snapshot snapshot = null;
+            try {
+                snapshot = mDiskLruCache.get(key);
+                if (snapshot == null) {
+                    return false;
+                }
+                mMetadata = CacheMetadata.decode(snapshot.getString(1));
+                return mMetadata.isFresh(System.currentTimeMillis());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+            }
+        }
+
+        /**
+         * True if a view waits for the bitmap, or, if {@code memoryPrefetch},
+         * a prefetch into the memory cache.
+         */
+        private boolean isBitmapWanted(boolean memoryPrefetch) {
+            synchronized (mInFlightTasks) {
+                for (ImageRequest request : mRequests) {
+                    if (request.getImageView() != null || (memoryPrefetch && request.isIntoMemory())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Ends the task without a bitmap unless {@link #isBitmapWanted}. Runs
+         * under the lock load() attaches requests with, so a view that just
+         * asked for the same url is not dropped.
+         */
+        private boolean finishUnlessWanted(boolean memoryPrefetch) {
+            synchronized (mInFlightTasks) {
+                if (isBitmapWanted(memoryPrefetch)) {
+                    return false;
+                }
+                finish(null);
+                return true;
+            }
+        }
+
+        private boolean acquireNetworkSlot() {
+            if (mHoldsNetworkSlot.get()) {
+                return true;
+            }
+            if (!mPrefetchNetworkSlots.tryAcquire()) {
+                return false;
+            }
+            mHoldsNetworkSlot.set(true);
+            return true;
+        }
+
+        private void releaseNetworkSlot() {
+            if (mHoldsNetworkSlot.compareAndSet(true, false)) {
+                mPrefetchNetworkSlots.release();
+            }
+        }
+
+        /**
+         * Streams the http body straight into the cache file and commits it,
+         * so the image is neither held in memory nor re-encoded for the disk
+         * cache. A stale entry is asked for conditionally, and a 304 only
+         * rewrites its metadata.
+         *
+         * @return DOWNLOAD_NEW or DOWNLOAD_NOT_MODIFIED if the entry was
+         *     committed, else DOWNLOAD_HOST_BUSY or DOWNLOAD_FAILED
+         */
+        private int downloadToDiskCache(DiskLruCache.Editor editor) {
+            Fetcher.Response response = null;
+            InputStream is = null;
+            OutputStream os = null;
+            int result = DOWNLOAD_FAILED;
+            try {
+                long requestStart = System.nanoTime();
+                response = fetch(mUrl, mMetadata);
+                long firstByte = System.nanoTime();
+                mTrace.add(Timing.TIME_TO_FIRST_BYTE, firstByte - requestStart);
+                mTrace.setFromNetwork();
+                long responseTime = System.currentTimeMillis();
+                if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    is = editor.newInputStream(0);
+                    if (is == null) {
+                        throw new IOException("entry evicted during revalidation of " + mUrl);
+                    }
+                    mMetadata = mMetadata.revalidatedBy(response, responseTime);
+                    editor.set(1, mMetadata.encode());
+                    mMetrics.increment(Counter.NOT_MODIFIED);
+                    result = DOWNLOAD_NOT_MODIFIED;
                 } else {
-                    bmp = getBitmapFromHttp(url);
-                    if (bmp != null) {
-                        addBitmapToCache(url, bmp);
-                        PostAndSetBitmap(imageView, bmp, url);
+                    is = new BufferedInputStream(response.getBody());
+                    os = editor.newOutputStream(0);
+                    // the body goes to the cache file and, until it found a thumbnail, to the parser
+                    ExifThumbnailParser parser = mProgressive && mProcessorChain.isEmpty()
+                            ? new ExifThumbnailParser() : null;
+                    byte[] buffer = new byte[8 * 1024];
+                    long downloaded = 0;
+                    int count;
+                    while ((count = is.read(buffer)) != -1) {
+                        os.write(buffer, 0, count);
+                        downloaded += count;
+                        if (parser != null) {
+                            int found = parser.feed(buffer, 0, count);
+                            if (found == ExifThumbnailParser.FOUND) {
+                                deliverPreview(parser);
+                            }
+                            if (found != ExifThumbnailParser.NEED_MORE) {
+                                parser = null;
+                            }
+                        }
                     }
+                    mTrace.add(Timing.DOWNLOAD, System.nanoTime() - firstByte);
+                    mMetrics.add(Counter.BYTES_DOWNLOADED, downloaded);
+                    CacheMetadata metadata = CacheMetadata.fromResponse(response, responseTime);
+                    editor.set(1, metadata.encode());
+                    mMetadata = metadata;
+                    result = DOWNLOAD_NEW;
                 }
+            } catch (HostBusyException e) {
+                result = DOWNLOAD_HOST_BUSY;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                closeQuietly(is);
+                closeQuietly(os);
+                // the body was read to its end, so this hands the connection back
+                closeQuietly(response);
             }
-        });
-    }
+            try {
+                if (result == DOWNLOAD_NEW || result == DOWNLOAD_NOT_MODIFIED) {
+                    editor.commit();
+                } else {
+                    editor.abort();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                result = DOWNLOAD_FAILED;
+            }
+            if (result == DOWNLOAD_FAILED) {
+                mMetrics.increment(Counter.NETWORK_FAILURE);
+            }
+            return result;
+        }
+
+        /**
+         * Posts the thumbnail {@code parser} found to the views still
+         * waiting. The preview stays out of the memory cache and the bitmap
+         * pool, the full image replaces it soon.
+         */
+        private void deliverPreview(ExifThumbnailParser parser) {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap preview = mDecoder.decode(parser.getBuffer(), parser.getThumbnailOffset(),
+                    parser.getThumbnailLength(), mReqWidth, mReqHeight, null);
+            if (preview == null) {
+                return;
+            }
+            ArrayList<ImageRequest> requests;
+            synchronized (mInFlightTasks) {
+                requests = new ArrayList<ImageRequest>(mRequests);
+            }
+            for (ImageRequest request : requests) {
+                postPreview(request, preview);
+            }
+        }
+
+        private void releaseData() {
+            if (mData != null) {
+                mByteArrayPool.put(mData.array());
+                mData = null;
+            }
+        }
+
+        /**
+         * Adds the time of the stage that ends now to the trace; the network
+         * and decode stages time their parts themselves.
+         */
+        private void endStage() {
+            if (mStage == Stage.DISK) {
+                mTrace.add(Timing.DISK, System.nanoTime() - mStageStart);
+            }
+        }
 
-    private void addBitmapToMemCache(String url, Bitmap bmp) {
-        mMemLruCache.put(getUrlKey(url), bmp);
+        private void moveTo(Stage stage) {
+            endStage();
+            mQueuedAt = System.nanoTime();
+            mStage = stage;
+            mThreadPoolManager.handOff(stage, this);
+        }
+
+        private void finish(Bitmap bmp) {
+            endStage();
+            ArrayList<ImageRequest> requests;
+            synchronized (mInFlightTasks) {
+                if (mInFlightTasks.get(mCacheKey) == this) {
+                    mInFlightTasks.remove(mCacheKey);
+                }
+                requests = new ArrayList<ImageRequest>(mRequests);
+                mRequests.clear();
+            }
+            mTrace.setSuccessful(bmp != null);
+            int posts = 0;
+            if (bmp != null && !mCancelled) {
+                for (ImageRequest request : requests) {
+                    if (request.getImageView() != null) {
+                        posts++;
+                    }
+                }
+            }
+            if (posts == 0) {
+                mTrace.complete();
+                mMetrics.record(mTrace);
+                return;
+            }
+            // the last of the deliveries completes the trace
+            mTrace.beginDelivery(posts);
+            for (ImageRequest request : requests) {
+                PostAndSetBitmap(request, bmp, mTrace);
+            }
+        }
     }
 
-    private void addBitmapToDiskCache(String url, Bitmap bmp) {
+    /**
+     * @param trace the load of {@code bmp}, completed by its last post, or
+     *     null for a bitmap from memory
+     */
+    private void PostAndSetBitmap(final ImageRequest request, final Bitmap bmp,
+            final LoadTrace trace) {
+        if (request.getImageView() == null) {
+            // a prefetch, the memory cache keeps the bitmap
+            return;
+        }
+        // the bitmap must not be reused while the delivery is pending
+        acquireBitmap(request.getCacheKey(), bmp);
+        mFrameDispatcher.dispatch(new FrameDispatcher.Delivery() {
+            @Override
+            public boolean isStale() {
+                return request.isCancelled() || request.getImageView().getTag() != request;
+            }
+
+            @Override
+            public void deliver() {
+                // the request holds the reference now, cancel() releases it
+                request.setBitmap(bmp);
+                request.getImageView().setImageBitmap(bmp);
+                endDelivery(trace);
+            }
 
+            @Override
+            public void drop() {
+                releaseBitmap(request.getCacheKey(), bmp);
+                endDelivery(trace);
+            }
+        });
     }
 
-    private void addBitmapToCache(String url, Bitmap bmp) {
-        addBitmapToMemCache(url, bmp);
-        addBitmapToDiskCache(url, bmp);
+    private void endDelivery(LoadTrace trace) {
+        if (trace != null && trace.endDelivery()) {
+            mMetrics.record(trace);
+        }
     }
 
-    private void PostAndSetBitmap(final ImageView imageView, final Bitmap bmp, final String url) {
-        mMainHandler.post(new Runnable() {
+    /**
+     * Like {@link #PostAndSetBitmap} for a preview, which is only set while
+     * the view has no image of its request yet.
+     */
+    private void postPreview(final ImageRequest request, final Bitmap preview) {
+        if (request.getImageView() == null) {
+            return;
+        }
+        mFrameDispatcher.dispatch(new FrameDispatcher.Delivery() {
             @Override
-            public void run() {
-                String taggedUrl = (String)imageView.getTag();
-                if (TextUtils.equals(taggedUrl, url)) {
-                    imageView.setImageBitmap(bmp);
-                }
+            public boolean isStale() {
+                return request.isCancelled() || request.getImageView().getTag() != request
+                        || request.hasBitmap();
+            }
+
+            @Override
+            public void deliver() {
+                request.getImageView().setImageBitmap(preview);
+            }
+
+            @Override
+            public void drop() {
             }
         });
     }
 
-    private Handler mMainHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
+    /**
+     * Looks {@code key} up in the active bitmaps, then in the LRU, and counts
+     * the caller as a user of the bitmap found. Both happen under the lock of
+     * {@link #mActiveResources}, so the LRU cannot evict and pool the bitmap
+     * in between.
+     */
+    private Bitmap acquireBitmapFromMemory(String key) {
+        synchronized (mActiveResources) {
+            Bitmap bmp = mActiveResources.get(key);
+            if (bmp == null) {
+                bmp = mMemLruCache.get(key);
+            }
+            if (bmp != null) {
+                acquireBitmap(key, bmp);
+            }
+            return bmp;
+        }
+    }
 
+    /**
+     * Makes {@code bmp} active, which takes it out of the LRU until the last
+     * user releases it.
+     */
+    private void acquireBitmap(String key, Bitmap bmp) {
+        synchronized (mActiveResources) {
+            mActiveResources.acquire(key, bmp);
+            mMemLruCache.remove(key);
         }
-    };
+    }
 
-    private Bitmap getBitmapFromHttp(String url) {
-        BufferedInputStream bis = null;
-        try {
-            URL uri = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) uri.openConnection();
-            bis = new BufferedInputStream(connection.getInputStream());
-            if (mImageProcessorList != null) {
-                for(ImageProcessor processor : mImageProcessorList) {
-                    processor.process(bis);
-                }
+    private void releaseBitmap(String key, Bitmap bmp) {
+        if (bmp == null) {
+            return;
+        }
+        if (mActiveResources.release(key, bmp)) {
+            mMemLruCache.put(key, bmp);
+        }
+    }
+
+    /**
+     * Hands a bitmap that left the memory cache to the pool, unless it left
+     * because it became active.
+     */
+    private void recycleToPool(String key, Bitmap bmp) {
+        synchronized (mActiveResources) {
+            if (mActiveResources.contains(key, bmp)) {
+                return;
             }
-            return BitmapFactory.decodeStream(bis);
+        }
+        mBitmapPool.put(bmp);
+    }
+
+    /**
+     * Sends a GET for {@code url} through {@link #mFetcher}, a conditional
+     * one if {@code cached} has validators.
+     *
+     * @return the response, 200, or 304 for a conditional GET
+     */
+    private Fetcher.Response fetch(String url, CacheMetadata cached) throws IOException {
+        boolean conditional = cached != null && cached.hasValidators();
+        Fetcher.Response response = conditional
+                ? mFetcher.fetch(url, cached.getEtag(), cached.getLastModified())
+                : mFetcher.fetch(url, null, null);
+        int responseCode = response.getCode();
+        if (responseCode != HttpURLConnection.HTTP_OK
+                && !(conditional && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+            closeQuietly(response);
+            throw new IOException("unexpected response " + responseCode + " for " + url);
+        }
+        return response;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Downloads {@code url} into memory, or returns null if that failed.
+     *
+     * @throws HostBusyException if the fetcher has no free slot for the host
+     *     of {@code url}, nothing was sent then
+     */
+    private byte[] getBytesFromHttp(String url, LoadTrace trace) throws HostBusyException {
+        Fetcher.Response response = null;
+        InputStream bis = null;
+        try {
+            long requestStart = System.nanoTime();
+            response = fetch(url, null);
+            long firstByte = System.nanoTime();
+            trace.add(Timing.TIME_TO_FIRST_BYTE, firstByte - requestStart);
+            trace.setFromNetwork();
+            bis = new BufferedInputStream(response.getBody());
+            byte[] data = LoaderUtils.readFully(bis);
+            trace.add(Timing.DOWNLOAD, System.nanoTime() - firstByte);
+            mMetrics.add(Counter.BYTES_DOWNLOADED, data.length);
+            return data;
+        } catch (HostBusyException e) {
+            throw e;
         } catch(Exception e) {
             e.printStackTrace();
+            mMetrics.increment(Counter.NETWORK_FAILURE);
         } finally {
+            closeQuietly(response);
             if (bis != null) {
                 try {
                     bis.close();
@@ -163,132 +1216,315 @@ public class ImageLoader {
             }
         }
         return null;
-=======
     }
 
-    public void load(ImageView imageView, String url) {
-        Bitmap bmp = getBitmapFromCache(url);
-        if (bmp != null) {
-            imageView.setImageBitmap(bmp);
-        } else {
-            imageView.setTag(url);
-            loadBitmapFromHttp(imageView, url);
+    /**
+     * Stores a processed bitmap so the chain does not run again for it. PNG
+     * keeps the alpha of e.g. rounded corners, anything opaque goes to JPEG.
+     */
+    private void addProcessedBitmapToDiskCache(String processedKey, Bitmap bmp,
+            CacheMetadata metadata) {
+        DiskLruCache.Editor editor = getDiskCacheEditor(processedKey);
+        if (editor == null) {
+            return;
         }
-    }
-
-    private void loadBitmapFromHttp(ImageView imageView, String url) {
-
-    }
-
-    private Bitmap getBitmapFromCache(String url) {
-        // õmd5
-        String key = LoaderUtils.encodeMd5(url);
-        if (TextUtils.isEmpty(key)) {
-            return null;
+        OutputStream os = null;
+        boolean success = false;
+        try {
+            os = editor.newOutputStream(0);
+            if (bmp.hasAlpha()) {
+                success = bmp.compress(Bitmap.CompressFormat.PNG, 100, os);
+            } else {
+                success = bmp.compress(Bitmap.CompressFormat.JPEG, 95, os);
+            }
+            if (success) {
+                editor.set(1, metadata.encode());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(os);
         }
-        Bitmap bitmap = getBitmapFromMemory(key);
-        if (bitmap == null) {
-            bitmap = getBitmapFromDiskCache(key);
+        try {
+            if (success) {
+                editor.commit();
+            } else {
+                editor.abort();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return bitmap;
->>>>>>> bdf0615235ca9e18e845a6c8ef336ba1ec122519
     }
 
     public void initMaxCacheSize() {
-        int maxMemory = (int)(Runtime.getRuntime().maxMemory()/KB);  // kbΪλ
-        mMaxMemCacheSize = maxMemory/8;
+        mMaxMemCacheSize = getFullMemCacheSize(mMemorySizePolicy);
+        // kbΪλ
+        mMaxBitmapPoolSize = mConfig.getBitmapPoolSize() / KB;
+        mMaxByteArrayPoolSize = mConfig.getByteArrayPoolSize() / KB;
+    }
 
-        // ⲿ洢ռռ
-        mMaxDiskCacheSize = 20 * 1024 * 1024; // 20MB
+    /**
+     * The memory cache size when memory is not tight, in KB: the fixed size
+     * of the config, else the heap fraction of {@code policy}.
+     */
+    private int getFullMemCacheSize(MemorySizePolicy policy) {
+        if (mConfig.getMemoryCacheSize() > 0) {
+            return Math.max(1, mConfig.getMemoryCacheSize() / KB);
+        }
+        int maxMemory = (int) (Runtime.getRuntime().maxMemory() / KB);
+        return Math.max(1, (int) (maxMemory * policy.getHeapFraction()));
     }
 
     private void initLruCache() {
+        if (mBitmapPool == null) {
+            mBitmapPool = new BitmapPool(mMaxBitmapPoolSize * KB);
+        }
+        if (mByteArrayPool == null) {
+            mByteArrayPool = new ByteArrayPool(mMaxByteArrayPoolSize * KB);
+        }
+        if (mEncodedCache == null && mConfig.getEncodedCacheSize() > 0) {
+            mEncodedCache = new EncodedMemoryCache(mConfig.getEncodedCacheSize());
+        }
         if (mMemLruCache == null) {
-            mMemLruCache = new LruCache<String, Bitmap>(mMaxMemCacheSize) {
-                protected int sizeOf(String key, Bitmap value) {
+            mMemLruCache = mConfig.getMemoryCacheFactory().create(mMaxMemCacheSize,
+                    new MemoryCacheFactory.Hooks() {
+                @Override
+                public int sizeOf(String key, Bitmap value) {
                     return value.getByteCount()/KB;    // kbΪλ
                 }
-            };
+
+                @Override
+                public void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                    if (oldValue != newValue) {
+                        recycleToPool(key, oldValue);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Replaces the policy that sizes the memory cache and applies it at once.
+     */
+    public void setMemorySizePolicy(MemorySizePolicy policy) {
+        if (mMemoryOwner != this) {
+            // the loader that owns the shared memory cache sizes it
+            mMemoryOwner.setMemorySizePolicy(policy);
+            return;
+        }
+        synchronized (mMemorySizeLock) {
+            mMemorySizePolicy = policy;
+            mMaxMemCacheSize = getFullMemCacheSize(policy);
+            applyMemorySize();
         }
     }
 
-    private Bitmap getBitmapFromMemory(String key) {
-        return mMemLruCache.get(key);
+    /**
+     * Shrinks the memory cache to the fraction of {@code level} in the
+     * {@link MemorySizePolicy}. Called by the framework from API 14 on; apps
+     * on older versions forward it from their activities.
+     *
+     * @param level a {@code ComponentCallbacks2.TRIM_MEMORY_*} level
+     */
+    public void onTrimMemory(int level) {
+        if (mMemoryOwner != this) {
+            mMemoryOwner.onTrimMemory(level);
+            return;
+        }
+        synchronized (mMemorySizeLock) {
+            mTrimLevel = level;
+            mTrimTime = SystemClock.uptimeMillis();
+            applyMemorySize();
+        }
     }
 
-    private void initDiskLruCache(Context context) {
-        File diskCacheDir = getDiskCacheDir(context, DISK_CACHE_SUBDIR);
-        new InitDiskCacheTask().execute(diskCacheDir);
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
     }
 
-    private File getDiskCacheDir(Context context, String dirName) {
-        boolean mounted = Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
-        boolean inPhoneSdCard = Environment.isExternalStorageRemovable();
-        String cacheDirPath = "";
-        if (mounted || inPhoneSdCard) {
-            cacheDirPath = context.getExternalCacheDir().getPath();
-        } else {
-            cacheDirPath = context.getCacheDir().getPath();
+    /**
+     * A load() means the UI is visible again, so the cache regrows after
+     * being trimmed for the background.
+     */
+    private void onForeground() {
+        if (mMemoryOwner != this) {
+            mMemoryOwner.onForeground();
+            return;
+        }
+        synchronized (mMemorySizeLock) {
+            if (mTrimLevel >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                mTrimLevel = 0;
+                applyMemorySize();
+            }
         }
-        return new File(cacheDirPath + File.separator + dirName);
     }
 
-    private class InitDiskCacheTask extends AsyncTask<File, Void, Void> {
-        @Override
-        protected Void doInBackground(File... params) {
-            synchronized (mDiskCacheLock) {
-                File cacheDir = params[0];
-                try {
-                    mDiskLruCache = DiskLruCache.open(cacheDir, 1, 1, mMaxDiskCacheSize);
-                    mDiskCacheStarting = false;
-                    mDiskCacheLock.notifyAll();
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Prefetches fill the memory cache only while it has room to spare and
+     * memory is not tight, so they never push out what the screen shows.
+     */
+    private boolean canPrefetchIntoMemory() {
+        if (mMemoryOwner != this) {
+            return mMemoryOwner.canPrefetchIntoMemory();
+        }
+        synchronized (mMemorySizeLock) {
+            if (mTrimLevel > 0 || mHeapUnderPressure) {
+                return false;
+            }
+        }
+        return mMemLruCache.size() < mMemLruCache.maxSize() * PREFETCH_MEMORY_FRACTION;
+    }
+
+    /**
+     * Looks at how full the heap is after a decode, at most once per
+     * {@link #HEAP_CHECK_INTERVAL_MS}. Bitmaps live on the Java heap up to
+     * API 25, so a heap that stays full after the GCs of our own allocations
+     * is the earliest sign that the next decode may fail.
+     */
+    private void checkHeapPressure() {
+        if (mMemoryOwner != this) {
+            mMemoryOwner.checkHeapPressure();
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        synchronized (mMemorySizeLock) {
+            if (now - mLastHeapCheck < HEAP_CHECK_INTERVAL_MS) {
+                return;
+            }
+            mLastHeapCheck = now;
+            Runtime runtime = Runtime.getRuntime();
+            float used = (float) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+            float threshold = mMemorySizePolicy.getPressureThreshold();
+            boolean changed = false;
+            if (used > threshold) {
+                changed = !mHeapUnderPressure;
+                mHeapUnderPressure = true;
+            } else if (used < threshold * 0.75f) {
+                // well below the threshold, so the size does not flap around it
+                changed = mHeapUnderPressure;
+                mHeapUnderPressure = false;
+                if (mTrimLevel > 0 && mTrimLevel < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                        && now - mTrimTime > TRIM_RECOVERY_MS) {
+                    mTrimLevel = 0;
+                    changed = true;
                 }
             }
-            return null;
+            if (changed) {
+                applyMemorySize();
+            }
+        }
+    }
+
+    private void applyMemorySize() {
+        float fraction = mMemorySizePolicy.getTrimFraction(mTrimLevel);
+        if (mHeapUnderPressure) {
+            fraction = Math.min(fraction, mMemorySizePolicy.getPressureFraction());
+        }
+        mMemLruCache.resize(Math.max(1, (int) (mMaxMemCacheSize * fraction)));
+        if (fraction == 0) {
+            mMemLruCache.evictAll();
+        }
+        if (fraction < 1) {
+            // the pools only ever shrink, they refill as bitmaps are dropped
+            mBitmapPool.trimToSize((int) (mBitmapPool.maxSize() * fraction));
+            mByteArrayPool.trimToSize((int) (mByteArrayPool.maxSize() * fraction));
+        }
+        if (mEncodedCache != null) {
+            // off the Java heap but not off the process, it shrinks along
+            mEncodedCache.resize((int) (mConfig.getEncodedCacheSize() * fraction));
+        }
+    }
+
+    /**
+     * Bitmaps dropped from the memory cache are reused by later decodes, see
+     * {@link BitmapPool}.
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * The tier of encoded images between the memory and the disk cache, or
+     * null if the config gives it no budget.
+     */
+    public EncodedMemoryCache getEncodedCache() {
+        return mEncodedCache;
+    }
+
+    private void initDiskLruCache() {
+        File diskCacheDir = mConfig.getDiskCacheDir();
+        synchronized (sDiskCacheDirs) {
+            if (!sDiskCacheDirs.add(diskCacheDir.getAbsoluteFile())) {
+                throw new IllegalStateException("another ImageLoader owns the disk cache in "
+                        + diskCacheDir + ", share it or give this one its own directory");
+            }
         }
+        // returns at once; until the shard of a key is open, loads of it go to the network
+        mDiskLruCache = ShardedDiskLruCache.openAsync(diskCacheDir, 1, DISK_CACHE_VALUE_COUNT,
+                mMaxDiskCacheSize, DISK_CACHE_SHARDS, AsyncTask.THREAD_POOL_EXECUTOR, null);
     }
-
+
     private void initThreadPool() {
         if (mThreadPoolManager == null) {
-            mThreadPoolManager = new ThreadPoolManager();
+            mThreadPoolManager = mConfig.getThreadPoolManager();
         }
     }
-
-    private Bitmap getBitmapFromDiskCache(String key) {
-        DiskLruCache.Snapshot snap = getBitmapSnapshotFromDiskCache(key);
-        return getBitmapFromSnapshot(snap);
+
+    /**
+     * The pools this loader runs on, for
+     * {@link ImageLoaderConfig.Builder#threadPoolManager} of a loader that
+     * should share them.
+     */
+    public ThreadPoolManager getThreadPoolManager() {
+        return mThreadPoolManager;
     }
 
-    private DiskLruCache.Snapshot getBitmapSnapshotFromDiskCache(String key) {
-        DiskLruCache.Snapshot snapShort = null;
-        synchronized (mDiskCacheLock) {
-            while(mDiskCacheStarting) {
-                try {
-                    mDiskCacheLock.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Rewrites the metadata of an existing entry and keeps its image.
+     */
+    private void updateMetadata(String key, CacheMetadata metadata) {
+        DiskLruCache.Editor editor = null;
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = mDiskLruCache.get(key);
+            if (snapshot != null) {
+                editor = snapshot.edit();
             }
-            if(mDiskLruCache != null) {
-                try {
-                    snapShort = mDiskLruCache.get(key);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
             }
         }
-        return snapShort;
+        if (editor == null) {
+            return;
+        }
+        boolean success = false;
+        try {
+            editor.set(1, metadata.encode());
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            if (success) {
+                editor.commit();
+            } else {
+                editor.abort();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
-    /////////////ط,Ҫȷ
-    private Bitmap getBitmapFromSnapshot(DiskLruCache.Snapshot snap) {
-        if (snap == null) {
+    private DiskLruCache.Editor getDiskCacheEditor(String key) {
+        try {
+            return mDiskLruCache.edit(key);
+        } catch (IOException e) {
+            e.printStackTrace();
             return null;
         }
-        InputStream is = snap.getInputStream(0);
-        return BitmapFactory.decodeStream(is);
     }
 
 }
@@ -0,0 +1,329 @@
+package com.example.imageloader.loader;
+
+import java.io.File;
+
+import com.example.imageloader.loader.net.Fetcher;
+import com.example.imageloader.loader.net.HttpUrlConnectionFetcher;
+
+import android.content.Context;
+import android.os.Environment;
+
+/**
+ * The settings of one {@link ImageLoader}, made with a {@link Builder}.
+ * <p>
+ * Apps that show images at very different sizes, e.g. a thumbnail grid and
+ * a full screen viewer, can run a loader per use with its own budgets. A
+ * loader either owns its memory and disk tiers or shares them with another
+ * loader, see {@link Builder#shareMemoryCacheWith} and
+ * {@link Builder#shareDiskCacheWith}. Loaders running at once should share
+ * their threads too, see {@link Builder#threadPoolManager}, or together they
+ * run more downloads and decodes than the device can take.
+ */
+public final class ImageLoaderConfig {
+    private static final String DEFAULT_DISK_CACHE_SUBDIR = "thumbnails";
+    private static final long DEFAULT_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    private final Context mContext;
+    private final MemorySizePolicy mMemorySizePolicy;
+    private final int mMemoryCacheSize;
+    private final MemoryCacheFactory mMemoryCacheFactory;
+    private final int mBitmapPoolSize;
+    private final int mByteArrayPoolSize;
+    private final int mEncodedCacheSize;
+    private final File mDiskCacheDir;
+    private final long mDiskCacheSize;
+    private final Fetcher mFetcher;
+    private final ImageDecoder mDecoder;
+    private final CacheKeyFunction mKeyFunction;
+    private final ImageLoader mMemorySharedWith;
+    private final ImageLoader mDiskSharedWith;
+    private final ThreadPoolManager mThreadPoolManager;
+
+    private ImageLoaderConfig(Builder builder) {
+        mContext = builder.mContext;
+        mMemorySizePolicy = builder.mMemorySizePolicy != null
+                ? builder.mMemorySizePolicy : MemorySizePolicy.forDevice(mContext);
+        int maxMemory = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory());
+        mMemoryCacheSize = builder.mMemoryCacheSize;
+        mMemoryCacheFactory = builder.mMemoryCacheFactory != null
+                ? builder.mMemoryCacheFactory : MemoryCacheFactory.TINY_LFU;
+        mBitmapPoolSize = builder.mBitmapPoolSize >= 0 ? builder.mBitmapPoolSize : maxMemory / 16;
+        mByteArrayPoolSize = builder.mByteArrayPoolSize >= 0
+                ? builder.mByteArrayPoolSize : maxMemory / 32;
+        mEncodedCacheSize = builder.mEncodedCacheSize >= 0
+                ? builder.mEncodedCacheSize : maxMemory / 16;
+        mDiskCacheDir = builder.mDiskCacheDir != null
+                ? builder.mDiskCacheDir : getDefaultDiskCacheDir(mContext);
+        mDiskCacheSize = builder.mDiskCacheSize > 0 ? builder.mDiskCacheSize : DEFAULT_DISK_CACHE_SIZE;
+        mFetcher = builder.mFetcher != null ? builder.mFetcher : new HttpUrlConnectionFetcher();
+        mDecoder = builder.mDecoder != null ? builder.mDecoder : ImageDecoder.DEFAULT;
+        mKeyFunction = builder.mKeyFunction != null ? builder.mKeyFunction : CacheKeyFunction.IDENTITY;
+        mMemorySharedWith = builder.mMemorySharedWith;
+        mDiskSharedWith = builder.mDiskSharedWith;
+        mThreadPoolManager = builder.mThreadPoolManager != null ? builder.mThreadPoolManager
+                : new ThreadPoolManager(builder.mDiskThreads, builder.mNetworkThreads,
+                        builder.mDecodeThreads);
+    }
+
+    private static File getDefaultDiskCacheDir(Context context) {
+        boolean mounted = Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+        boolean inPhoneSdCard = Environment.isExternalStorageRemovable();
+        String cacheDirPath = "";
+        if (mounted || inPhoneSdCard) {
+            cacheDirPath = context.getExternalCacheDir().getPath();
+        } else {
+            cacheDirPath = context.getCacheDir().getPath();
+        }
+        return new File(cacheDirPath + File.separator + DEFAULT_DISK_CACHE_SUBDIR);
+    }
+
+    /**
+     * The application context, never an activity.
+     */
+    public Context getContext() {
+        return mContext;
+    }
+
+    public MemorySizePolicy getMemorySizePolicy() {
+        return mMemorySizePolicy;
+    }
+
+    /**
+     * The full size of the memory cache in bytes, or 0 to take the heap
+     * fraction of the {@link MemorySizePolicy}.
+     */
+    public int getMemoryCacheSize() {
+        return mMemoryCacheSize;
+    }
+
+    public MemoryCacheFactory getMemoryCacheFactory() {
+        return mMemoryCacheFactory;
+    }
+
+    public int getBitmapPoolSize() {
+        return mBitmapPoolSize;
+    }
+
+    public int getByteArrayPoolSize() {
+        return mByteArrayPoolSize;
+    }
+
+    /**
+     * The budget of the {@link EncodedMemoryCache} in bytes, 0 without one.
+     */
+    public int getEncodedCacheSize() {
+        return mEncodedCacheSize;
+    }
+
+    public File getDiskCacheDir() {
+        return mDiskCacheDir;
+    }
+
+    public long getDiskCacheSize() {
+        return mDiskCacheSize;
+    }
+
+    public Fetcher getFetcher() {
+        return mFetcher;
+    }
+
+    public ImageDecoder getDecoder() {
+        return mDecoder;
+    }
+
+    public CacheKeyFunction getKeyFunction() {
+        return mKeyFunction;
+    }
+
+    /**
+     * The loader whose memory cache, pools and memory sizing are used, or
+     * null for a loader with its own.
+     */
+    public ImageLoader getMemorySharedWith() {
+        return mMemorySharedWith;
+    }
+
+    /**
+     * The loader whose disk cache is used, or null for a loader with its own.
+     */
+    public ImageLoader getDiskSharedWith() {
+        return mDiskSharedWith;
+    }
+
+    /**
+     * The pools the loads run on, possibly shared with other loaders.
+     */
+    public ThreadPoolManager getThreadPoolManager() {
+        return mThreadPoolManager;
+    }
+
+    /**
+     * Sizes are in bytes. Anything not set gets the default the loader
+     * always had: 1/8 of the heap or what {@link MemorySizePolicy#forDevice}
+     * says for the memory cache, 1/16 and 1/32 of the heap for the bitmap
+     * and byte array pools, 1/16 for the encoded images in
+     * {@link EncodedMemoryCache}, 20 MB of disk cache, and threads of its own
+     * with the {@link ThreadPoolManager.Stage#defaultPoolSize} of each stage.
+     */
+    public static final class Builder {
+        private final Context mContext;
+        private MemorySizePolicy mMemorySizePolicy;
+        private int mMemoryCacheSize;
+        private MemoryCacheFactory mMemoryCacheFactory;
+        private int mBitmapPoolSize = -1;
+        private int mByteArrayPoolSize = -1;
+        private int mEncodedCacheSize = -1;
+        private File mDiskCacheDir;
+        private long mDiskCacheSize;
+        private Fetcher mFetcher;
+        private ImageDecoder mDecoder;
+        private CacheKeyFunction mKeyFunction;
+        private ImageLoader mMemorySharedWith;
+        private ImageLoader mDiskSharedWith;
+        private ThreadPoolManager mThreadPoolManager;
+        private int mDiskThreads = ThreadPoolManager.Stage.DISK.defaultPoolSize;
+        private int mNetworkThreads = ThreadPoolManager.Stage.NETWORK.defaultPoolSize;
+        private int mDecodeThreads = ThreadPoolManager.Stage.DECODE.defaultPoolSize;
+
+        public Builder(Context context) {
+            // a loader outlives every activity, it must not keep one alive
+            mContext = context.getApplicationContext();
+        }
+
+        public Builder memorySizePolicy(MemorySizePolicy policy) {
+            mMemorySizePolicy = policy;
+            return this;
+        }
+
+        /**
+         * Fixes the full size of the memory cache instead of taking the heap
+         * fraction of the {@link MemorySizePolicy}. Trims and heap pressure
+         * still shrink it by the fractions of the policy.
+         */
+        public Builder memoryCacheSize(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes <= 0");
+            }
+            mMemoryCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Picks the eviction policy of the memory cache, e.g.
+         * {@link MemoryCacheFactory#LRU}. {@link MemoryCacheFactory#TINY_LFU}
+         * by default.
+         */
+        public Builder memoryCache(MemoryCacheFactory factory) {
+            mMemoryCacheFactory = factory;
+            return this;
+        }
+
+        public Builder bitmapPoolSize(int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes < 0");
+            }
+            mBitmapPoolSize = bytes;
+            return this;
+        }
+
+        public Builder byteArrayPoolSize(int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes < 0");
+            }
+            mByteArrayPoolSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the budget of the direct memory that keeps the encoded bytes
+         * of recent images between the memory and the disk cache, 0 turns
+         * that tier off.
+         */
+        public Builder encodedCacheSize(int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes < 0");
+            }
+            mEncodedCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Every loader with a disk cache of its own needs its own directory.
+         */
+        public Builder diskCacheDir(File dir) {
+            mDiskCacheDir = dir;
+            return this;
+        }
+
+        public Builder diskCacheSize(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes <= 0");
+            }
+            mDiskCacheSize = bytes;
+            return this;
+        }
+
+        public Builder fetcher(Fetcher fetcher) {
+            mFetcher = fetcher;
+            return this;
+        }
+
+        public Builder decoder(ImageDecoder decoder) {
+            mDecoder = decoder;
+            return this;
+        }
+
+        public Builder keyFunction(CacheKeyFunction keyFunction) {
+            mKeyFunction = keyFunction;
+            return this;
+        }
+
+        /**
+         * Uses the memory cache, bitmap pools and memory sizing of
+         * {@code loader} instead of own ones; the memory settings of this
+         * builder are ignored then. Both loaders should use the same
+         * {@link CacheKeyFunction}.
+         */
+        public Builder shareMemoryCacheWith(ImageLoader loader) {
+            mMemorySharedWith = loader;
+            return this;
+        }
+
+        /**
+         * Uses the disk cache of {@code loader} instead of an own one; the
+         * disk settings of this builder are ignored then.
+         */
+        public Builder shareDiskCacheWith(ImageLoader loader) {
+            mDiskSharedWith = loader;
+            return this;
+        }
+
+        /**
+         * Runs the loads on {@code manager}, e.g. the
+         * {@link ImageLoader#getThreadPoolManager()} of another loader, instead
+         * of on threads of their own; {@link #threadPoolSizes} is ignored then.
+         */
+        public Builder threadPoolManager(ThreadPoolManager manager) {
+            mThreadPoolManager = manager;
+            return this;
+        }
+
+        /**
+         * Sets the threads of the disk, network and decode stages of a loader
+         * with threads of its own.
+         */
+        public Builder threadPoolSizes(int diskThreads, int networkThreads, int decodeThreads) {
+            if (diskThreads <= 0 || networkThreads <= 0 || decodeThreads <= 0) {
+                throw new IllegalArgumentException("thread counts must be > 0");
+            }
+            mDiskThreads = diskThreads;
+            mNetworkThreads = networkThreads;
+            mDecodeThreads = decodeThreads;
+            return this;
+        }
+
+        public ImageLoaderConfig build() {
+            return new ImageLoaderConfig(this);
+        }
+    }
+}
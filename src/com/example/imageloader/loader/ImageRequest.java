@@ -0,0 +1,126 @@
+package com.example.imageloader.loader;
+
+import com.example.imageloader.loader.processor.ProcessorChain;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+/**
+ * Handle returned by {@link ImageLoader#load}. The request is stored as the
+ * tag of its ImageView, so binding the view to another url cancels it.
+ * Requests of {@link ImageLoader#prefetch} have no view.
+ */
+public class ImageRequest {
+    private final ImageLoader mLoader;
+    private final ImageView mImageView;
+    private final String mUrl;
+    private final String mCacheKey;
+    private final int mReqWidth;
+    private final int mReqHeight;
+    private final ProcessorChain mProcessorChain;
+    private final Priority mPriority;
+    // a prefetch that also decodes into the memory cache
+    private final boolean mIntoMemory;
+    private volatile boolean mCancelled;
+    // the bitmap set on the view by this request, only used on the main thread
+    private Bitmap mBitmap;
+
+    ImageRequest(ImageLoader loader, ImageView imageView, String url, String cacheKey,
+            int reqWidth, int reqHeight, ProcessorChain processorChain, Priority priority) {
+        mLoader = loader;
+        mImageView = imageView;
+        mUrl = url;
+        mCacheKey = cacheKey;
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+        mProcessorChain = processorChain;
+        mPriority = priority;
+        mIntoMemory = false;
+    }
+
+    /**
+     * A prefetch, which has no view and runs at {@link Priority#PREFETCH}.
+     */
+    ImageRequest(ImageLoader loader, String url, String cacheKey, int reqWidth, int reqHeight,
+            ProcessorChain processorChain, boolean intoMemory) {
+        mLoader = loader;
+        mImageView = null;
+        mUrl = url;
+        mCacheKey = cacheKey;
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+        mProcessorChain = processorChain;
+        mPriority = Priority.PREFETCH;
+        mIntoMemory = intoMemory;
+    }
+
+    /**
+     * The view the image is set on, null for a prefetch.
+     */
+    public ImageView getImageView() {
+        return mImageView;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * The width the image is decoded for, see {@link ImageUtils#calculateInSampleSize}.
+     */
+    public int getReqWidth() {
+        return mReqWidth;
+    }
+
+    public int getReqHeight() {
+        return mReqHeight;
+    }
+
+    boolean isIntoMemory() {
+        return mIntoMemory;
+    }
+
+    String getCacheKey() {
+        return mCacheKey;
+    }
+
+    ProcessorChain getProcessorChain() {
+        return mProcessorChain;
+    }
+
+    void setBitmap(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    boolean hasBitmap() {
+        return mBitmap != null;
+    }
+
+    Bitmap takeBitmap() {
+        Bitmap bitmap = mBitmap;
+        mBitmap = null;
+        return bitmap;
+    }
+
+    /**
+     * Stops delivering the result to the ImageView. The underlying load is
+     * dropped too once no other request is waiting for the same url. An image
+     * already set stays on the view and is not reused for other decodes until
+     * the view is bound again.
+     */
+    public void cancel() {
+        if (mCancelled) {
+            return;
+        }
+        mCancelled = true;
+        mLoader.cancel(this);
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
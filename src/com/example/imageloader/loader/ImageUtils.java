@@ -3,6 +3,9 @@ package com.example.imageloader.loader;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.ImageView;
 
 public class ImageUtils {
     public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
@@ -36,4 +39,113 @@ public class ImageUtils {
         options.inSampleSize = inSampleSize;
         return BitmapFactory.decodeResource(res, resId, options);
     }
+
+    public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, int offset, int length,
+            int reqWidth, int reqHeight) {
+        return decodeSampledBitmapFromByteArray(data, offset, length, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * Decodes sampled for the requested size like
+     * {@link #decodeSampledBitmapFromResource}, drawing into a bitmap from
+     * {@code pool} when one fits. The result is mutable so it can go back to
+     * the pool later.
+     */
+    public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, int offset, int length,
+            int reqWidth, int reqHeight, BitmapPool pool) {
+        // First decode with inJustDecodeBounds=true to check dimensions
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+
+        // Calculate inSampleSize
+        int inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+
+        // Decode bitmap with inSampleSize set
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        if (pool != null) {
+            options.inMutable = true;
+            addInBitmapOptions(options, pool);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap did not fit this image after all
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            // truncated or corrupt data, the pooled bitmap was taken for nothing
+            pool.put(options.inBitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes at full size, reusing a pooled bitmap if one fits.
+     */
+    public static Bitmap decodeBitmapFromByteArray(byte[] data, int offset, int length, BitmapPool pool) {
+        return decodeSampledBitmapFromByteArray(data, offset, length, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, pool);
+    }
+
+    private static void addInBitmapOptions(BitmapFactory.Options options, BitmapPool pool) {
+        int sampleSize = options.inSampleSize;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // older decoders only reuse for unsampled jpeg and png images
+            if (sampleSize != 1 || !("image/jpeg".equals(options.outMimeType)
+                    || "image/png".equals(options.outMimeType))) {
+                return;
+            }
+        }
+        // decoders round the sampled size up
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        options.inBitmap = pool.get(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns the width to decode an image for {@code imageView}: its measured
+     * width, else a fixed layout width, else the screen width.
+     */
+    public static int getTargetWidth(ImageView imageView) {
+        int width = imageView.getWidth();
+        if (width <= 0) {
+            LayoutParams params = imageView.getLayoutParams();
+            if (params != null) {
+                width = params.width;
+            }
+        }
+        if (width <= 0) {
+            width = imageView.getResources().getDisplayMetrics().widthPixels;
+        }
+        return width;
+    }
+
+    /**
+     * Returns the height to decode an image for {@code imageView}, see
+     * {@link #getTargetWidth(ImageView)}.
+     */
+    public static int getTargetHeight(ImageView imageView) {
+        int height = imageView.getHeight();
+        if (height <= 0) {
+            LayoutParams params = imageView.getLayoutParams();
+            if (params != null) {
+                height = params.height;
+            }
+        }
+        if (height <= 0) {
+            height = imageView.getResources().getDisplayMetrics().heightPixels;
+        }
+        return height;
+    }
 }
@@ -0,0 +1,169 @@
+package com.example.imageloader.loader;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+
+/**
+ * Prefetches the rows a list is about to show, see
+ * {@link ImageLoader#prefetch}. Set it as the scroll listener of the list, or
+ * forward the calls of your own listener to it.
+ * <p>
+ * How far ahead it looks grows with the scroll velocity, from
+ * {@code minRows} when the list barely moves to {@code maxRows} in a fling.
+ * Prefetches of rows that fell out of that range, e.g. after the direction
+ * changed, are cancelled. While the list scrolls faster than
+ * {@link #MAX_PREFETCH_VELOCITY} nothing new is prefetched, the rows fly by
+ * unseen and would only use up the budget of the rows the fling ends at.
+ */
+public class ListPrefetcher implements AbsListView.OnScrollListener {
+    /**
+     * Maps an adapter position to the url its row shows.
+     */
+    public interface UrlProvider {
+        /**
+         * @return the url of {@code position}, or null if it has no image
+         */
+        String getUrl(int position);
+    }
+
+    private static final int DEFAULT_MIN_ROWS = 4;
+    private static final int DEFAULT_MAX_ROWS = 20;
+    // the rows the list scrolls through in this time are prefetched
+    private static final float LOOKAHEAD_SECONDS = 1f;
+    // in rows per second
+    private static final float MAX_PREFETCH_VELOCITY = 50f;
+    // weight of the newest sample in the smoothed velocity
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final ImageLoader mLoader;
+    private final UrlProvider mUrlProvider;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final boolean mIntoMemory;
+    private int mMinRows = DEFAULT_MIN_ROWS;
+    private int mMaxRows = DEFAULT_MAX_ROWS;
+    // position -> its running prefetch, only touched on the main thread
+    private final HashMap<Integer, ImageRequest> mRequests = new HashMap<Integer, ImageRequest>();
+    private int mFirstVisible = -1;
+    private int mVisibleCount;
+    private int mTotalCount;
+    private long mLastMoveTime;
+    // rows per second, positive towards the end of the list
+    private float mVelocity;
+    // the direction of the last move, kept after the list stopped
+    private boolean mTowardsStart;
+
+    /**
+     * @param targetWidth the width the rows load their images for, so the
+     *     prefetched bitmaps are memory cache hits for them
+     * @param intoMemory whether to decode into the memory cache too, or only
+     *     fill the disk cache
+     */
+    public ListPrefetcher(ImageLoader loader, UrlProvider urlProvider, int targetWidth,
+            int targetHeight, boolean intoMemory) {
+        mLoader = loader;
+        mUrlProvider = urlProvider;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mIntoMemory = intoMemory;
+    }
+
+    /**
+     * Sets how many rows past the visible ones are prefetched when the list
+     * is slow and when it is fast.
+     */
+    public void setLookahead(int minRows, int maxRows) {
+        if (minRows < 0 || maxRows < minRows) {
+            throw new IllegalArgumentException("need 0 <= minRows <= maxRows");
+        }
+        mMinRows = minRows;
+        mMaxRows = maxRows;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_IDLE) {
+            // the list stopped, look ahead in the direction it went
+            mVelocity = 0;
+            update();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+            int totalItemCount) {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstVisible >= 0 && firstVisibleItem != mFirstVisible) {
+            long elapsed = Math.max(1, now - mLastMoveTime);
+            float velocity = (firstVisibleItem - mFirstVisible) * 1000f / elapsed;
+            mVelocity = VELOCITY_SMOOTHING * velocity + (1 - VELOCITY_SMOOTHING) * mVelocity;
+            mTowardsStart = firstVisibleItem < mFirstVisible;
+        }
+        if (firstVisibleItem != mFirstVisible) {
+            mLastMoveTime = now;
+        }
+        boolean changed = firstVisibleItem != mFirstVisible || visibleItemCount != mVisibleCount
+                || totalItemCount != mTotalCount;
+        mFirstVisible = firstVisibleItem;
+        mVisibleCount = visibleItemCount;
+        mTotalCount = totalItemCount;
+        if (changed) {
+            update();
+        }
+    }
+
+    /**
+     * Cancels every prefetch, e.g. when the adapter changed or the list
+     * leaves the screen.
+     */
+    public void cancelAll() {
+        for (ImageRequest request : mRequests.values()) {
+            request.cancel();
+        }
+        mRequests.clear();
+    }
+
+    private void update() {
+        if (mFirstVisible < 0) {
+            return;
+        }
+        float speed = Math.abs(mVelocity);
+        int rows = (int) Math.min(mMaxRows, mMinRows + speed * LOOKAHEAD_SECONDS);
+        int start;
+        int end;
+        if (!mTowardsStart) {
+            start = mFirstVisible + mVisibleCount;
+            end = Math.min(mTotalCount, start + rows);
+        } else {
+            end = mFirstVisible;
+            start = Math.max(0, end - rows);
+        }
+
+        Iterator<Map.Entry<Integer, ImageRequest>> it = mRequests.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, ImageRequest> entry = it.next();
+            int position = entry.getKey();
+            if (position < start || position >= end) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+        if (speed > MAX_PREFETCH_VELOCITY) {
+            return;
+        }
+        for (int position = start; position < end; position++) {
+            if (mRequests.containsKey(position)) {
+                continue;
+            }
+            ImageRequest request = mLoader.prefetch(mUrlProvider.getUrl(position),
+                    mTargetWidth, mTargetHeight, mIntoMemory);
+            if (request != null) {
+                mRequests.put(position, request);
+            }
+        }
+    }
+}
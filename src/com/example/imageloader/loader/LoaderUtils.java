@@ -1,36 +1,227 @@
 package com.example.imageloader.loader;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import android.text.TextUtils;
-
 //////////ӵ:http://www.xcoder.cn/index.php/archives/1401
 /////////ҪȷǷȷ
 public class LoaderUtils {
-    public static String encodeMd5(String value) {
-        byte[] digest = encodeMd5Bytes(value);
-        StringBuilder sb = new StringBuilder();
-        if (digest != null) {
-            for(byte b : digest) {
-                sb.append(Integer.toHexString(b & 0xff));
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // seed of hash128(), keys are persisted in the disk cache so never change it
+    private static final long MURMUR_SEED = 0;
+    private static final long MURMUR_C1 = 0x87c37b91114253d5L;
+    private static final long MURMUR_C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Scratch space of one thread, so deriving a key allocates nothing but
+     * the returned string.
+     */
+    private static class KeyBuffers {
+        final MessageDigest md5;
+        final byte[] digest = new byte[16];
+        final char[] hex = new char[32];
+        byte[] utf8 = new byte[256];
+
+        KeyBuffers() {
+            MessageDigest md5 = null;
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
             }
+            this.md5 = md5;
         }
-        return sb.toString();
     }
 
-    private static byte[] encodeMd5Bytes(String value) {
-        if(TextUtils.isEmpty(value)) {
+    private static final ThreadLocal<KeyBuffers> sKeyBuffers = new ThreadLocal<KeyBuffers>() {
+        @Override
+        protected KeyBuffers initialValue() {
+            return new KeyBuffers();
+        }
+    };
+
+    /**
+     * Returns the md5 of the UTF-8 bytes of {@code value} as 32 lowercase hex
+     * digits, or null if {@code value} is empty. Used for disk cache keys.
+     */
+    public static String encodeMd5(String value) {
+        if (value == null || value.length() == 0) {
             return null;
         }
-        MessageDigest digester = null;;
+        KeyBuffers buffers = sKeyBuffers.get();
+        MessageDigest digester = buffers.md5;
+        if (digester == null) {
+            return null;
+        }
+        int length = encodeUtf8(value, buffers);
+        digester.reset();
+        digester.update(buffers.utf8, 0, length);
         try {
-            digester = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
+            digester.digest(buffers.digest, 0, buffers.digest.length);
+        } catch (DigestException e) {
             e.printStackTrace();
             return null;
         }
-        digester.update(value.getBytes());
-        return digester.digest();
+        char[] hex = buffers.hex;
+        for (int i = 0; i < buffers.digest.length; i++) {
+            int b = buffers.digest[i] & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >>> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Returns the 128 bit MurmurHash3 (x64 variant) of the chars of
+     * {@code value} as 32 lowercase hex digits, or null if {@code value} is
+     * empty. Much cheaper than {@link #encodeMd5}, for keys that only need
+     * to be unique and not hard to forge, like the ones of the memory cache.
+     */
+    public static String hash128(String value) {
+        if (value == null || value.length() == 0) {
+            return null;
+        }
+        int length = value.length();
+        long h1 = MURMUR_SEED;
+        long h2 = MURMUR_SEED;
+        // every char is two little endian bytes, so a 16 byte block is 8 chars
+        int blocks = length / 8;
+        for (int i = 0; i < blocks; i++) {
+            int offset = i * 8;
+            long k1 = getLong(value, offset, 4);
+            long k2 = getLong(value, offset + 4, 4);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks * 8;
+        int remaining = length - tail;
+        if (remaining > 4) {
+            h2 ^= mixK2(getLong(value, tail + 4, remaining - 4));
+        }
+        if (remaining > 0) {
+            h1 ^= mixK1(getLong(value, tail, Math.min(remaining, 4)));
+        }
+
+        long byteLength = 2L * length;
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        char[] hex = sKeyBuffers.get().hex;
+        putHex(hex, 0, h1);
+        putHex(hex, 16, h2);
+        return new String(hex);
+    }
+
+    /**
+     * Packs {@code count} (at most 4) chars starting at {@code offset} into
+     * a long, the first char in the lowest bits.
+     */
+    private static long getLong(String value, int offset, int count) {
+        long k = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            k = (k << 16) | value.charAt(offset + i);
+        }
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= MURMUR_C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= MURMUR_C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= MURMUR_C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= MURMUR_C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static void putHex(char[] hex, int offset, long value) {
+        for (int i = 15; i >= 0; i--) {
+            hex[offset + i] = HEX_DIGITS[(int) (value & 0x0f)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Writes the UTF-8 bytes of {@code value} to {@code buffers.utf8}, which
+     * grows if needed, and returns their number. Unpaired surrogates become
+     * '?' like in {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    private static int encodeUtf8(String value, KeyBuffers buffers) {
+        int length = value.length();
+        // no char takes more than 3 bytes, a surrogate pair takes 4
+        if (buffers.utf8.length < length * 3) {
+            buffers.utf8 = new byte[length * 3];
+        }
+        byte[] out = buffers.utf8;
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                out[pos++] = (byte) '?';
+            } else {
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Reads {@code is} to the end. The stream is not closed.
+     */
+    public static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, count);
+        }
+        return bos.toByteArray();
     }
 }
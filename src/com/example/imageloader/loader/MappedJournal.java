@@ -0,0 +1,245 @@
+package com.example.imageloader.loader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The binary journal of a {@link DiskLruCache}. A 16 byte header is followed
+ * by records of a fixed size, appended through a memory mapped file, so an
+ * append is a copy into the page cache and opening the cache reads the
+ * records straight from the mapping without splitting any text.
+ * <pre>
+ *     header: magic (4) version (4) appVersion (4) valueCount (4)
+ *     record: op (1) key length (1) key (64) valueCount lengths (8 each) crc32 (4)
+ * </pre>
+ * The file grows in steps and the part after the last record stays zeroed.
+ * Replay stops at the first record whose op is zero or whose checksum does
+ * not match, which also drops a record torn by a crash while it was written.
+ * <p>
+ * Not thread safe, the cache calls it under its lock.
+ */
+final class MappedJournal implements Closeable {
+    static final byte CLEAN = 1;
+    static final byte DIRTY = 2;
+    static final byte REMOVE = 3;
+    static final byte READ = 4;
+
+    static final int MAX_KEY_LENGTH = 64;
+
+    private static final int MAGIC = 0x444c5243; // "DLRC"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    // the mapping is extended by this many bytes when it is full
+    private static final int GROW_SIZE = 64 * 1024;
+
+    interface Replay {
+        void onRecord(byte op, String key, long[] lengths) throws IOException;
+    }
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mValueCount;
+    private final int mRecordSize;
+    private final CRC32 mCrc = new CRC32();
+    // the record being replayed
+    private final byte[] mRecord;
+    private MappedByteBuffer mBuffer;
+    // the end of the last valid record
+    private int mPosition;
+    private int mRecordCount;
+
+    private MappedJournal(RandomAccessFile file, int valueCount) {
+        mFile = file;
+        mChannel = file.getChannel();
+        mValueCount = valueCount;
+        mRecordSize = getRecordSize(valueCount);
+        mRecord = new byte[mRecordSize];
+    }
+
+    static int getRecordSize(int valueCount) {
+        return 1 + 1 + MAX_KEY_LENGTH + 8 * valueCount + 4;
+    }
+
+    /**
+     * Maps an existing journal, passes each valid record to {@code replay}
+     * and returns the journal ready for appending after the last of them.
+     *
+     * @throws IOException if the header does not match
+     */
+    static MappedJournal open(File file, int appVersion, int valueCount, Replay replay)
+            throws IOException {
+        MappedJournal journal = new MappedJournal(new RandomAccessFile(file, "rw"), valueCount);
+        try {
+            journal.replay(appVersion, replay);
+            return journal;
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates {@code file}, replacing any existing one, with {@code records}
+     * made by {@link #encode} as its content.
+     */
+    static MappedJournal create(File file, int appVersion, int valueCount, List<byte[]> records)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        MappedJournal journal = new MappedJournal(raf, valueCount);
+        try {
+            journal.map(HEADER_SIZE + records.size() * journal.mRecordSize + GROW_SIZE);
+            journal.mBuffer.putInt(MAGIC);
+            journal.mBuffer.putInt(VERSION);
+            journal.mBuffer.putInt(appVersion);
+            journal.mBuffer.putInt(valueCount);
+            journal.mPosition = HEADER_SIZE;
+            for (byte[] record : records) {
+                journal.append(record);
+            }
+            return journal;
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    private void replay(int appVersion, Replay replay) throws IOException {
+        long length = mChannel.size();
+        if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+            throw new IOException("unexpected journal length " + length);
+        }
+        map((int) length);
+        int magic = mBuffer.getInt();
+        int version = mBuffer.getInt();
+        int journalAppVersion = mBuffer.getInt();
+        int journalValueCount = mBuffer.getInt();
+        if (magic != MAGIC || version != VERSION || journalAppVersion != appVersion
+                || journalValueCount != mValueCount) {
+            throw new IOException("unexpected journal header: [" + magic + ", " + version
+                    + ", " + journalAppVersion + ", " + journalValueCount + "]");
+        }
+        int position = HEADER_SIZE;
+        byte[] record = mRecord;
+        while (position + mRecordSize <= length) {
+            mBuffer.get(record);
+            byte op = record[0];
+            int keyLength = record[1] & 0xff;
+            if (op == 0 || keyLength == 0 || keyLength > MAX_KEY_LENGTH
+                    || getChecksum(record) != readInt(record, mRecordSize - 4)) {
+                break;
+            }
+            String key = new String(record, 2, keyLength, DiskLruCache.UTF_8);
+            long[] lengths = null;
+            if (op == CLEAN) {
+                lengths = new long[mValueCount];
+                for (int i = 0; i < mValueCount; i++) {
+                    lengths[i] = readLong(record, 2 + MAX_KEY_LENGTH + 8 * i);
+                }
+            }
+            replay.onRecord(op, key, lengths);
+            position += mRecordSize;
+            mRecordCount++;
+        }
+        mPosition = position;
+    }
+
+    private int getChecksum(byte[] record) {
+        mCrc.reset();
+        mCrc.update(record, 0, mRecordSize - 4);
+        return (int) mCrc.getValue();
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return (long) readInt(data, offset) << 32 | (readInt(data, offset + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Encodes a record for a journal of {@code valueCount} values.
+     * {@code lengths} is only written for {@link #CLEAN}.
+     *
+     * @throws IllegalArgumentException if the UTF-8 key is longer than
+     *     {@link #MAX_KEY_LENGTH} bytes
+     */
+    static byte[] encode(byte op, String key, long[] lengths, int valueCount) {
+        byte[] keyBytes = key.getBytes(DiskLruCache.UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("key longer than " + MAX_KEY_LENGTH
+                    + " bytes: \"" + key + "\"");
+        }
+        int recordSize = getRecordSize(valueCount);
+        byte[] record = new byte[recordSize];
+        record[0] = op;
+        record[1] = (byte) keyBytes.length;
+        System.arraycopy(keyBytes, 0, record, 2, keyBytes.length);
+        if (op == CLEAN) {
+            int offset = 2 + MAX_KEY_LENGTH;
+            for (int i = 0; i < valueCount; i++) {
+                long length = lengths[i];
+                for (int b = 7; b >= 0; b--) {
+                    record[offset + b] = (byte) length;
+                    length >>>= 8;
+                }
+                offset += 8;
+            }
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(record, 0, recordSize - 4);
+        int crc = (int) crc32.getValue();
+        record[recordSize - 4] = (byte) (crc >>> 24);
+        record[recordSize - 3] = (byte) (crc >>> 16);
+        record[recordSize - 2] = (byte) (crc >>> 8);
+        record[recordSize - 1] = (byte) crc;
+        return record;
+    }
+
+    void append(byte[] record) throws IOException {
+        if (mPosition + mRecordSize > mBuffer.capacity()) {
+            map(mBuffer.capacity() + GROW_SIZE);
+        }
+        mBuffer.position(mPosition);
+        mBuffer.put(record);
+        mPosition += mRecordSize;
+        mRecordCount++;
+    }
+
+    /**
+     * The number of records appended or replayed since the journal was
+     * opened or created.
+     */
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    private void map(int size) throws IOException {
+        // mapping beyond the end extends the file with zeros
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Writes the mapped records to the storage device. Not needed for other
+     * processes or a restart to see them, only against power loss.
+     */
+    void force() {
+        if (mBuffer != null) {
+            mBuffer.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mBuffer = null;
+        mFile.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.imageloader.loader;
+
+import com.example.imageloader.loader.cache.LruMemoryCache;
+import com.example.imageloader.loader.cache.MemoryCache;
+import com.example.imageloader.loader.cache.TinyLfuMemoryCache;
+
+import android.graphics.Bitmap;
+
+/**
+ * Creates the bitmap memory cache of an {@link ImageLoader}, so the eviction
+ * policy can be swapped, e.g. for plain LRU on an app whose screens rarely
+ * repeat an image. The loader sizes the entries and recycles what leaves the
+ * cache through the {@link Hooks} it passes in.
+ */
+public interface MemoryCacheFactory {
+    /**
+     * Entry sizes and removals as the loader needs them. A cache must measure
+     * every entry with {@link #sizeOf} and report every value that leaves it
+     * to {@link #entryRemoved}, like {@link MemoryCache#sizeOf} and
+     * {@link MemoryCache#entryRemoved}.
+     */
+    interface Hooks {
+        int sizeOf(String key, Bitmap value);
+
+        void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue);
+    }
+
+    /**
+     * {@link TinyLfuMemoryCache}, the default.
+     */
+    MemoryCacheFactory TINY_LFU = new MemoryCacheFactory() {
+        @Override
+        public MemoryCache<String, Bitmap> create(int maxSize, final Hooks hooks) {
+            return new TinyLfuMemoryCache<String, Bitmap>(maxSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return hooks.sizeOf(key, value);
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                        Bitmap newValue) {
+                    hooks.entryRemoved(evicted, key, oldValue, newValue);
+                }
+            };
+        }
+    };
+
+    /**
+     * {@link LruMemoryCache}.
+     */
+    MemoryCacheFactory LRU = new MemoryCacheFactory() {
+        @Override
+        public MemoryCache<String, Bitmap> create(int maxSize, final Hooks hooks) {
+            return new LruMemoryCache<String, Bitmap>(maxSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return hooks.sizeOf(key, value);
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                        Bitmap newValue) {
+                    hooks.entryRemoved(evicted, key, oldValue, newValue);
+                }
+            };
+        }
+    };
+
+    /**
+     * @param maxSize in the units of {@link Hooks#sizeOf}
+     */
+    MemoryCache<String, Bitmap> create(int maxSize, Hooks hooks);
+}
@@ -0,0 +1,123 @@
+package com.example.imageloader.loader;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * How much memory {@link ImageLoader} may use for decoded bitmaps and how far
+ * it shrinks when memory gets tight. The full size is a fraction of the heap;
+ * trim levels and heap pressure each map to a fraction of that full size, the
+ * smallest one that applies wins.
+ * <p>
+ * {@link #forDevice} picks defaults by device class. Change them before
+ * handing the policy to {@link ImageLoader#setMemorySizePolicy}.
+ */
+public class MemorySizePolicy {
+    private float mHeapFraction = 1f / 8;
+    // trim level -> fraction of the full size, for that level and above
+    private final TreeMap<Integer, Float> mTrimFractions = new TreeMap<Integer, Float>();
+    private float mPressureThreshold = 0.85f;
+    private float mPressureFraction = 0.5f;
+
+    public MemorySizePolicy() {
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, 0.75f);
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, 0.5f);
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, 0.25f);
+        // the app went to the background, its views are not drawn any more
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 0.5f);
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, 0.25f);
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_MODERATE, 0.1f);
+        mTrimFractions.put(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, 0f);
+    }
+
+    /**
+     * Returns the defaults for the class of this device: less of the heap
+     * and deeper trims on low RAM devices, more of the heap on devices with
+     * a large memory class.
+     */
+    public static MemorySizePolicy forDevice(Context context) {
+        MemorySizePolicy policy = new MemorySizePolicy();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) {
+            return policy;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && am.isLowRamDevice()) {
+            policy.setHeapFraction(1f / 12);
+            policy.setTrimFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, 0.25f);
+            policy.setTrimFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, 0f);
+            policy.setTrimFraction(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 0.25f);
+            policy.setTrimFraction(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, 0f);
+            policy.setHeapPressure(0.75f, 0.25f);
+        } else if (am.getMemoryClass() >= 256) {
+            policy.setHeapFraction(1f / 6);
+        }
+        return policy;
+    }
+
+    /**
+     * @param fraction the part of the max heap the memory cache may use when
+     *     memory is not tight
+     */
+    public MemorySizePolicy setHeapFraction(float fraction) {
+        checkFraction(fraction);
+        mHeapFraction = fraction;
+        return this;
+    }
+
+    public float getHeapFraction() {
+        return mHeapFraction;
+    }
+
+    /**
+     * @param level a {@code ComponentCallbacks2.TRIM_MEMORY_*} level, the
+     *     fraction also applies to higher levels without a fraction of their own
+     * @param fraction the part of the full size kept at that level, 0 empties
+     *     the cache
+     */
+    public MemorySizePolicy setTrimFraction(int level, float fraction) {
+        checkFraction(fraction);
+        mTrimFractions.put(level, fraction);
+        return this;
+    }
+
+    /**
+     * Returns the part of the full size kept at trim {@code level}, 1 if it
+     * is below all configured levels.
+     */
+    public float getTrimFraction(int level) {
+        Map.Entry<Integer, Float> entry = mTrimFractions.floorEntry(level);
+        return entry != null ? entry.getValue() : 1f;
+    }
+
+    /**
+     * @param threshold the part of the max heap in use above which the heap
+     *     counts as under pressure
+     * @param fraction the part of the full size kept meanwhile
+     */
+    public MemorySizePolicy setHeapPressure(float threshold, float fraction) {
+        checkFraction(threshold);
+        checkFraction(fraction);
+        mPressureThreshold = threshold;
+        mPressureFraction = fraction;
+        return this;
+    }
+
+    public float getPressureThreshold() {
+        return mPressureThreshold;
+    }
+
+    public float getPressureFraction() {
+        return mPressureFraction;
+    }
+
+    private static void checkFraction(float fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction not in [0, 1]: " + fraction);
+        }
+    }
+}
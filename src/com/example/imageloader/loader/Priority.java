@@ -0,0 +1,15 @@
+package com.example.imageloader.loader;
+
+/**
+ * How urgently a load is needed. Tasks of a higher priority always leave
+ * the queue first; see {@link PriorityTaskQueue} for the ordering inside one
+ * priority.
+ */
+public enum Priority {
+    /** Needed right now, e.g. the image of a detail screen. */
+    IMMEDIATE,
+    /** Bound to a view that is on screen. */
+    VISIBLE,
+    /** Speculative work for rows that are not visible yet. */
+    PREFETCH
+}
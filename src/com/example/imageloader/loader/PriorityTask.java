@@ -0,0 +1,8 @@
+package com.example.imageloader.loader;
+
+/**
+ * A task that tells {@link PriorityTaskQueue} where it should be queued.
+ */
+public interface PriorityTask extends Runnable {
+    Priority getPriority();
+}
@@ -0,0 +1,355 @@
+package com.example.imageloader.loader;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue for {@link ThreadPoolManager}.
+ * <p>
+ * Higher {@link Priority} tasks are taken first and tasks of the same priority
+ * are taken newest first, so the rows that just scrolled on screen are loaded
+ * before the ones that already scrolled away. To keep old work from starving,
+ * every {@link #AGED_TAKE_INTERVAL}-th take serves the oldest task instead if it
+ * has waited longer than {@link #AGING_NANOS}.
+ * <p>
+ * Runnables that are not a {@link PriorityTask} are queued as
+ * {@link Priority#VISIBLE}. A queue created with a capacity rejects
+ * {@link #offer(Runnable)} and blocks {@link #put(Runnable)} while full.
+ */
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    static final long AGING_NANOS = TimeUnit.SECONDS.toNanos(2);
+    static final int AGED_TAKE_INTERVAL = 4;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private final int mCapacity;
+    // one deque per priority, newest task first
+    private final ArrayDeque<Node>[] mDeques;
+    private int mCount;
+    private int mTakeCount;
+
+    private static class Node {
+        final Runnable task;
+        final long enqueueTime;
+
+        Node(Runnable task, long enqueueTime) {
+            this.task = task;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    public PriorityTaskQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public PriorityTaskQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        mCapacity = capacity;
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Node>[] deques = (ArrayDeque<Node>[]) new ArrayDeque<?>[PRIORITIES.length];
+        mDeques = deques;
+        for (int i = 0; i < mDeques.length; i++) {
+            mDeques[i] = new ArrayDeque<Node>();
+        }
+    }
+
+    private static Priority priorityOf(Runnable task) {
+        if (task instanceof PriorityTask) {
+            Priority priority = ((PriorityTask) task).getPriority();
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return Priority.VISIBLE;
+    }
+
+    // must hold mLock
+    private void enqueue(Runnable task) {
+        mDeques[priorityOf(task).ordinal()].addFirst(new Node(task, System.nanoTime()));
+        mCount++;
+        mNotEmpty.signal();
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        mLock.lock();
+        try {
+            if (mCount >= mCapacity) {
+                return false;
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        mLock.lockInterruptibly();
+        try {
+            while (mCount >= mCapacity) {
+                mNotFull.await();
+            }
+            enqueue(task);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (mCount >= mCapacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = mNotFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Moves a queued task to the place of its current priority. It is queued
+     * there as if it was just added, with a fresh enqueue time, so every
+     * deque stays ordered by age and aging keeps finding the oldest task at
+     * the tail of its deque. Tasks only get requeued when they become more
+     * urgent, so restarting their wait costs them little.
+     *
+     * @return false if the task is not queued any more
+     */
+    public boolean requeue(Runnable task) {
+        mLock.lock();
+        try {
+            for (ArrayDeque<Node> deque : mDeques) {
+                for (Iterator<Node> it = deque.iterator(); it.hasNext(); ) {
+                    Node node = it.next();
+                    if (node.task == task) {
+                        it.remove();
+                        mDeques[priorityOf(task).ordinal()].addFirst(new Node(task, System.nanoTime()));
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // must hold mLock
+    private Runnable dequeue() {
+        if (mCount == 0) {
+            return null;
+        }
+        mCount--;
+        mTakeCount++;
+        mNotFull.signal();
+        if (mTakeCount % AGED_TAKE_INTERVAL == 0) {
+            ArrayDeque<Node> oldest = null;
+            for (ArrayDeque<Node> deque : mDeques) {
+                Node last = deque.peekLast();
+                if (last != null && (oldest == null || last.enqueueTime < oldest.peekLast().enqueueTime)) {
+                    oldest = deque;
+                }
+            }
+            if (System.nanoTime() - oldest.peekLast().enqueueTime > AGING_NANOS) {
+                return oldest.pollLast().task;
+            }
+        }
+        for (ArrayDeque<Node> deque : mDeques) {
+            if (!deque.isEmpty()) {
+                return deque.pollFirst().task;
+            }
+        }
+        throw new IllegalStateException("count " + (mCount + 1) + " but no task queued");
+    }
+
+    @Override
+    public Runnable poll() {
+        mLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                mNotEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        mLock.lock();
+        try {
+            for (ArrayDeque<Node> deque : mDeques) {
+                if (!deque.isEmpty()) {
+                    return deque.peekFirst().task;
+                }
+            }
+            return null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        mLock.lock();
+        try {
+            for (ArrayDeque<Node> deque : mDeques) {
+                for (Iterator<Node> it = deque.iterator(); it.hasNext(); ) {
+                    if (it.next().task == task) {
+                        it.remove();
+                        mCount--;
+                        mNotFull.signal();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        mLock.lock();
+        try {
+            return mCapacity - mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        mLock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && mCount > 0) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued tasks in take order,
+     * ignoring aging.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        ArrayList<Runnable> snapshot = new ArrayList<Runnable>();
+        mLock.lock();
+        try {
+            for (ArrayDeque<Node> deque : mDeques) {
+                for (Node node : deque) {
+                    snapshot.add(node.task);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable mLast;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                mLast = it.next();
+                return mLast;
+            }
+
+            @Override
+            public void remove() {
+                if (mLast == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityTaskQueue.this.remove(mLast);
+                mLast = null;
+            }
+        };
+    }
+}
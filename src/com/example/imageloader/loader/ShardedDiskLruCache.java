@@ -0,0 +1,340 @@
+package com.example.imageloader.loader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A disk cache split into independent {@link DiskLruCache} shards, each in
+ * its own subdirectory with its own journal, LRU order and lock. A key always
+ * lives in the shard picked by its hash, so lookups of different keys rarely
+ * wait for each other and a journal compaction or a commit in one shard never
+ * holds up the others.
+ * <p>
+ * The size budget is shared by the shards. Each shard may grow up to the
+ * whole budget, and after every commit the shards together are trimmed back
+ * to it: the shard whose least recently used entry was used longest ago
+ * gives that entry up, so the eviction order approximates one LRU over the
+ * whole cache. Entries not used since the cache was opened count as the
+ * oldest, and among those the largest shard evicts first.
+ * <p>
+ * Reads still take the lock of their shard, which a commit in the same shard
+ * holds while it renames the new files and appends its journal record; the
+ * value itself is written outside the lock. Reads in other shards never wait
+ * for it.
+ * <p>
+ * {@link #openAsync} returns at once and opens the shards one after another
+ * in the background. Until its shard is open a key is simply not found and
+ * cannot be edited, so callers fall back to the network instead of waiting
+ * for the journals to be read.
+ */
+public class ShardedDiskLruCache implements Closeable {
+    /**
+     * Told when {@link #openAsync} has tried to open every shard.
+     */
+    public interface OpenCallback {
+        /**
+         * Called on the executor thread. Shards that could not be opened
+         * stay unavailable, see {@link #getOpenShardCount()}.
+         */
+        void onOpened(ShardedDiskLruCache cache);
+    }
+
+    private final File mDirectory;
+    private final int mAppVersion;
+    private final int mValueCount;
+    private final long mMaxSize;
+    // a shard is null until it is open
+    private final AtomicReferenceArray<DiskLruCache> mShards;
+    private boolean mClosed;
+    // held while the shards are trimmed to mMaxSize, taken before any shard's lock
+    private final Object mTrimLock = new Object();
+    private final Runnable mTrimToBudget = new Runnable() {
+        @Override
+        public void run() {
+            trimToBudget();
+        }
+    };
+
+    private ShardedDiskLruCache(File directory, int appVersion, int valueCount, long maxSize,
+            int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount <= 0");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mDirectory = directory;
+        mAppVersion = appVersion;
+        mValueCount = valueCount;
+        mMaxSize = maxSize;
+        mShards = new AtomicReferenceArray<DiskLruCache>(shardCount);
+    }
+
+    /**
+     * Opens the cache in {@code directory}, creating it if none exists there.
+     *
+     * @param shardCount the number of shards, must stay the same between runs
+     *     or the cached entries are not found any more
+     * @see DiskLruCache#open
+     */
+    public static ShardedDiskLruCache open(File directory, int appVersion, int valueCount,
+            long maxSize, int shardCount) throws IOException {
+        ShardedDiskLruCache cache = new ShardedDiskLruCache(directory, appVersion, valueCount,
+                maxSize, shardCount);
+        try {
+            cache.deleteUnshardedLayout();
+            for (int i = 0; i < shardCount; i++) {
+                cache.openShard(i);
+            }
+        } catch (IOException e) {
+            DiskLruCache.closeQuietly(cache);
+            throw e;
+        }
+        return cache;
+    }
+
+    /**
+     * Like {@link #open}, but returns before any shard is open and opens them
+     * on {@code executor}. A shard that fails to open is skipped.
+     *
+     * @param callback may be null
+     */
+    public static ShardedDiskLruCache openAsync(File directory, int appVersion, int valueCount,
+            long maxSize, int shardCount, Executor executor, final OpenCallback callback) {
+        final ShardedDiskLruCache cache = new ShardedDiskLruCache(directory, appVersion,
+                valueCount, maxSize, shardCount);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.deleteUnshardedLayout();
+                    for (int i = 0; i < cache.getShardCount(); i++) {
+                        try {
+                            cache.openShard(i);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (callback != null) {
+                        callback.onOpened(cache);
+                    }
+                }
+            }
+        });
+        return cache;
+    }
+
+    private void deleteUnshardedLayout() throws IOException {
+        if (new File(mDirectory, DiskLruCache.JOURNAL_FILE).exists()
+                || new File(mDirectory, DiskLruCache.TEXT_JOURNAL_FILE).exists()) {
+            // a cache of the unsharded layout, its files would never be evicted
+            DiskLruCache.deleteContents(mDirectory);
+        }
+    }
+
+    private void openShard(int index) throws IOException {
+        // a shard trims itself only above the whole budget, trimToBudget() does the rest
+        DiskLruCache shard = DiskLruCache.open(new File(mDirectory, Integer.toString(index)),
+                mAppVersion, mValueCount, mMaxSize);
+        shard.setSizeListener(mTrimToBudget);
+        synchronized (this) {
+            if (!mClosed) {
+                mShards.set(index, shard);
+            }
+        }
+        if (mShards.get(index) != shard) {
+            // closed while the journal was read
+            shard.close();
+            return;
+        }
+        // the shards opened before may have filled the budget already
+        trimToBudget();
+    }
+
+    /**
+     * Evicts the globally least recently used entries until the open shards
+     * together hold at most {@link #maxSize()} bytes.
+     */
+    private void trimToBudget() {
+        synchronized (mTrimLock) {
+            while (size() > mMaxSize) {
+                DiskLruCache victim = null;
+                long victimAccess = Long.MAX_VALUE;
+                long victimSize = -1;
+                for (int i = 0; i < mShards.length(); i++) {
+                    DiskLruCache shard = mShards.get(i);
+                    if (shard == null) {
+                        continue;
+                    }
+                    long access = shard.getEldestAccessTime();
+                    if (access == Long.MAX_VALUE) {
+                        // nothing to evict
+                        continue;
+                    }
+                    long size = shard.size();
+                    if (access < victimAccess || (access == victimAccess && size > victimSize)) {
+                        victim = shard;
+                        victimAccess = access;
+                        victimSize = size;
+                    }
+                }
+                try {
+                    if (victim == null || !victim.evictEldest()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the shard of {@code key}, or null if it is not open yet.
+     */
+    private DiskLruCache getShard(String key) {
+        int hash = key.hashCode();
+        // the low bits of String.hashCode() depend mostly on the last chars
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return mShards.get((hash & 0x7fffffff) % mShards.length());
+    }
+
+    /**
+     * Returns null if the entry does not exist or its shard is not open yet.
+     *
+     * @see DiskLruCache#get
+     */
+    public DiskLruCache.Snapshot get(String key) throws IOException {
+        DiskLruCache shard = getShard(key);
+        return shard != null ? shard.get(key) : null;
+    }
+
+    /**
+     * Reads a whole value into an array from {@code pool} without keeping a
+     * file open. Returns null if the entry does not exist or its shard is not
+     * open yet.
+     *
+     * @see DiskLruCache#read
+     */
+    public ByteBuffer read(String key, int index, ByteArrayPool pool) throws IOException {
+        DiskLruCache shard = getShard(key);
+        return shard != null ? shard.read(key, index, pool) : null;
+    }
+
+    /**
+     * Returns null if another edit is in progress or the shard of the key is
+     * not open yet.
+     *
+     * @see DiskLruCache#edit
+     */
+    public DiskLruCache.Editor edit(String key) throws IOException {
+        DiskLruCache shard = getShard(key);
+        return shard != null ? shard.edit(key) : null;
+    }
+
+    /**
+     * @see DiskLruCache#remove
+     */
+    public boolean remove(String key) throws IOException {
+        DiskLruCache shard = getShard(key);
+        return shard != null && shard.remove(key);
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public int getShardCount() {
+        return mShards.length();
+    }
+
+    /**
+     * The number of shards open so far. Equals {@link #getShardCount()} once
+     * {@link #openAsync} is done, unless a shard failed to open.
+     */
+    public int getOpenShardCount() {
+        int count = 0;
+        for (int i = 0; i < mShards.length(); i++) {
+            if (mShards.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The bytes stored in all open shards. Each shard is read under its own
+     * lock, so the sum is not an atomic snapshot.
+     */
+    public long size() {
+        long size = 0;
+        for (int i = 0; i < mShards.length(); i++) {
+            DiskLruCache shard = mShards.get(i);
+            if (shard != null) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Evicts entries above the shared budget.
+     */
+    public void flush() throws IOException {
+        for (int i = 0; i < mShards.length(); i++) {
+            DiskLruCache shard = mShards.get(i);
+            if (shard != null) {
+                shard.flush();
+            }
+        }
+        trimToBudget();
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            // shards still being opened are closed by openShard()
+            mClosed = true;
+        }
+        IOException failure = null;
+        for (int i = 0; i < mShards.length(); i++) {
+            DiskLruCache shard = mShards.get(i);
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Closes the cache and deletes everything in its directory.
+     */
+    public void delete() throws IOException {
+        close();
+        DiskLruCache.deleteContents(mDirectory);
+    }
+}
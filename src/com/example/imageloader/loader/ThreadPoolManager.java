@@ -1,10 +1,20 @@
 package com.example.imageloader.loader;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs loads as a pipeline over separately sized pools, so blocking network
+ * reads never hold the threads that decode and CPU bound decodes never hold
+ * the threads that wait on sockets.
+ * <p>
+ * Loaders can share one manager, see
+ * {@link ImageLoaderConfig.Builder#threadPoolManager}, so several loaders
+ * together stay within one set of threads and their loads are ordered by
+ * priority against each other.
+ */
 public class ThreadPoolManager {
     private static int NUMBER_OF_CORES = Runtime.getRuntime().availableProcessors();
     // Sets the amount of time an idle thread waits before terminating
@@ -13,22 +23,146 @@ public class ThreadPoolManager {
     // Sets the Time Unit to seconds
     private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
 
-    private BlockingQueue<Runnable> mBlockingQueue;
+    /**
+     * The pools of the pipeline. Work enters at {@link #DISK} and is handed
+     * on to the next stage with {@link ThreadPoolManager#handOff}.
+     */
+    public enum Stage {
+        /** Disk cache lookups, mostly short file reads. */
+        DISK(2, false),
+        /**
+         * Http downloads, which spend most of their time blocked. Unbounded:
+         * the tasks waiting here hold no data yet, and a disk thread blocked
+         * on a full network queue would hold up the disk hits of visible rows.
+         */
+        NETWORK(Math.max(4, NUMBER_OF_CORES * 2), false),
+        /**
+         * Bitmap decodes, CPU bound so never more threads than cores. Bounded,
+         * every waiting task holds its encoded image.
+         */
+        DECODE(NUMBER_OF_CORES, true);
 
-    private ThreadPoolExecutor mThreadPool;
+        /** The threads of the stage unless the manager is given other sizes. */
+        public final int defaultPoolSize;
+        // whether handOff() blocks the upstream stage once QUEUED_PER_THREAD tasks per thread wait
+        final boolean bounded;
 
+        Stage(int defaultPoolSize, boolean bounded) {
+            this.defaultPoolSize = defaultPoolSize;
+            this.bounded = bounded;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    // tasks per thread that may wait in a bounded queue
+    private static final int QUEUED_PER_THREAD = 2;
+
+    private final int[] mPoolSizes;
+
+    private PriorityTaskQueue[] mBlockingQueues;
+
+    private ThreadPoolExecutor[] mThreadPools;
+
+    /**
+     * Creates the pools with the {@link Stage#defaultPoolSize} of each stage.
+     */
     public ThreadPoolManager() {
+        this(Stage.DISK.defaultPoolSize, Stage.NETWORK.defaultPoolSize,
+                Stage.DECODE.defaultPoolSize);
+    }
+
+    /**
+     * Creates the pools with the given numbers of threads.
+     */
+    public ThreadPoolManager(int diskThreads, int networkThreads, int decodeThreads) {
+        if (diskThreads <= 0 || networkThreads <= 0 || decodeThreads <= 0) {
+            throw new IllegalArgumentException("thread counts must be > 0");
+        }
+        mPoolSizes = new int[STAGES.length];
+        mPoolSizes[Stage.DISK.ordinal()] = diskThreads;
+        mPoolSizes[Stage.NETWORK.ordinal()] = networkThreads;
+        mPoolSizes[Stage.DECODE.ordinal()] = decodeThreads;
         init();
     }
 
     public void init() {
-        mBlockingQueue = new LinkedBlockingQueue<Runnable>();
-        mThreadPool = new ThreadPoolExecutor(NUMBER_OF_CORES,    // Initial pool size
-                                    NUMBER_OF_CORES,    // max pool size
-                                    KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, mBlockingQueue);
+        mBlockingQueues = new PriorityTaskQueue[STAGES.length];
+        mThreadPools = new ThreadPoolExecutor[STAGES.length];
+        for (Stage stage : STAGES) {
+            int poolSize = mPoolSizes[stage.ordinal()];
+            // newest and most urgent tasks first, see PriorityTaskQueue
+            PriorityTaskQueue queue = new PriorityTaskQueue(
+                    stage.bounded ? QUEUED_PER_THREAD * poolSize : Integer.MAX_VALUE);
+            mBlockingQueues[stage.ordinal()] = queue;
+            mThreadPools[stage.ordinal()] = new ThreadPoolExecutor(poolSize,    // Initial pool size
+                                    poolSize,    // max pool size
+                                    KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, queue, BLOCK_WHEN_FULL);
+        }
     }
 
+    public int getPoolSize(Stage stage) {
+        return mPoolSizes[stage.ordinal()];
+    }
+
+    /**
+     * Starts a task at the first stage of the pipeline. Never blocks.
+     */
     public void addTask(Runnable runnable) {
-        mThreadPool.execute(runnable);
+        mThreadPools[Stage.DISK.ordinal()].execute(runnable);
+    }
+
+    /**
+     * Passes a task on to {@code stage}. Called from a pool thread when its
+     * stage is done. Only {@link Stage#DECODE} is bounded; if it is full the
+     * caller waits for room, which throttles reads and downloads to the pace
+     * of the decodes. A task waiting for room is not cancellable yet.
+     */
+    public void handOff(Stage stage, Runnable runnable) {
+        mThreadPools[stage.ordinal()].execute(runnable);
+    }
+
+    /**
+     * Removes a task that is still waiting in any of the queues.
+     *
+     * @return true if the task was removed before it started
+     */
+    public boolean removeTask(Runnable runnable) {
+        for (ThreadPoolExecutor pool : mThreadPools) {
+            if (pool.remove(runnable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-queues a waiting task after its {@link PriorityTask#getPriority()}
+     * changed. Does nothing if the task is not waiting in a queue.
+     */
+    public void updatePriority(PriorityTask task) {
+        for (PriorityTaskQueue queue : mBlockingQueues) {
+            if (queue.requeue(task)) {
+                return;
+            }
+        }
     }
+
+    /**
+     * Backpressure between stages: instead of rejecting, wait until the
+     * stage's queue has room again.
+     */
+    private static final RejectedExecutionHandler BLOCK_WHEN_FULL = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("pool is shut down");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        }
+    };
 }
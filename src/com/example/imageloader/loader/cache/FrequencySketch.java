@@ -0,0 +1,123 @@
+package com.example.imageloader.loader.cache;
+
+/**
+ * Estimates how often keys were seen recently, in a count-min sketch of 4 bit
+ * counters. Each key is counted in four counters of different rows and its
+ * frequency is the smallest of them, so collisions only ever overestimate.
+ * Once as many increments as ten times the table width were counted all
+ * counters are halved, so keys that were popular a while ago lose their
+ * weight.
+ * <p>
+ * Not thread safe, the owning cache calls it under its lock.
+ */
+final class FrequencySketch {
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_FREQUENCY = 15;
+
+    // 16 counters of 4 bits per long
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mSize;
+
+    FrequencySketch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Widens the table for about {@code capacity} distinct keys. The counts
+     * are lost when it grows.
+     */
+    void ensureCapacity(int capacity) {
+        int length = tableSizeFor(Math.max(capacity, 16));
+        if (mTable != null && mTable.length >= length) {
+            return;
+        }
+        mTable = new long[length];
+        mTableMask = length - 1;
+        mSampleSize = 10 * length;
+        mSize = 0;
+    }
+
+    int capacity() {
+        return mTable.length;
+    }
+
+    /**
+     * Returns the estimated number of recent accesses of {@code hashCode},
+     * at most 15.
+     */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one access of {@code hashCode}.
+     */
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mSize == mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[index] & mask) != mask) {
+            mTable[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all counters.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            odd += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        // every odd counter loses half an increment to the shift
+        mSize = (mSize >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEED[row]) * SEED[row];
+        h += h >>> 32;
+        return ((int) h) & mTableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        return Math.min(size, 1 << 30);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.imageloader.loader.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Drops the least recently used entry first, like
+ * {@link android.util.LruCache}. One pass over more entries than fit, e.g. a
+ * fling through a long list, replaces the whole content.
+ */
+public class LruMemoryCache<K, V> extends MemoryCache<K, V> {
+    private final LinkedHashMap<K, V> mMap = new LinkedHashMap<K, V>(0, 0.75f, true);
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public LruMemoryCache(int maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    public V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        synchronized (this) {
+            V value = mMap.get(key);
+            if (value != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous;
+        synchronized (this) {
+            mSize += safeSizeOf(key, value);
+            previous = mMap.put(key, value);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(maxSize());
+        return previous;
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V previous;
+        synchronized (this) {
+            previous = mMap.remove(key);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        ArrayList<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>();
+        synchronized (this) {
+            Iterator<Map.Entry<K, V>> it = mMap.entrySet().iterator();
+            while (mSize > maxSize && it.hasNext()) {
+                Map.Entry<K, V> eldest = it.next();
+                evicted.add(new EvictedEntry<K, V>(eldest.getKey(), eldest.getValue()));
+                it.remove();
+                mSize -= safeSizeOf(eldest.getKey(), eldest.getValue());
+                mEvictionCount++;
+            }
+        }
+        for (Map.Entry<K, V> entry : evicted) {
+            entryRemoved(true, entry.getKey(), entry.getValue(), null);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    @Override
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    private static class EvictedEntry<K, V> implements Map.Entry<K, V> {
+        private final K mKey;
+        private final V mValue;
+
+        EvictedEntry(K key, V value) {
+            mKey = key;
+            mValue = value;
+        }
+
+        @Override
+        public K getKey() {
+            return mKey;
+        }
+
+        @Override
+        public V getValue() {
+            return mValue;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.imageloader.loader.cache;
+
+/**
+ * A bounded in-memory cache with the contract of
+ * {@link android.util.LruCache}: sizes are measured by {@link #sizeOf},
+ * {@link #entryRemoved} is told about every value that leaves, outside of
+ * the cache's lock, and all methods are thread safe. Subclasses decide which
+ * entry to drop when the cache is full.
+ */
+public abstract class MemoryCache<K, V> {
+    private int mMaxSize;
+
+    protected MemoryCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the value of {@code key}, or null. A hit counts as an access
+     * for the eviction policy.
+     */
+    public abstract V get(K key);
+
+    /**
+     * Caches {@code value} for {@code key}. The policy may drop it again right
+     * away if it does not think it is worth more than what it would evict.
+     *
+     * @return the previous value of {@code key}
+     */
+    public abstract V put(K key, V value);
+
+    /**
+     * @return the value removed, or null
+     */
+    public abstract V remove(K key);
+
+    /**
+     * Drops entries until the cache holds at most {@code maxSize}, -1 empties
+     * it.
+     */
+    public abstract void trimToSize(int maxSize);
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * The sum of {@link #sizeOf} of all entries.
+     */
+    public abstract int size();
+
+    public final synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Changes the max size, dropping entries right away if the cache holds
+     * more than the new one.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this) {
+            mMaxSize = maxSize;
+            onResize(maxSize);
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Called under the lock of the cache when its max size changes.
+     */
+    void onResize(int maxSize) {
+    }
+
+    public abstract int hitCount();
+
+    public abstract int missCount();
+
+    public abstract int evictionCount();
+
+    /**
+     * The size of an entry in the units of the max size, 1 by default.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called for values that were evicted, removed or replaced, without
+     * holding the lock of the cache.
+     *
+     * @param evicted true if the value was dropped to make room
+     * @param newValue the replacing value, or null
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    final int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = hitCount() + missCount();
+        int hitPercent = accesses != 0 ? (100 * hitCount() / accesses) : 0;
+        Class<?> type = getClass();
+        while (type.isAnonymousClass()) {
+            type = type.getSuperclass();
+        }
+        return String.format("%s[size=%d,maxSize=%d,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]",
+                type.getSimpleName(), size(), maxSize(), hitCount(), missCount(),
+                evictionCount(), hitPercent);
+    }
+}
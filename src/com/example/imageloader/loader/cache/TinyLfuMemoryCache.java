@@ -0,0 +1,324 @@
+package com.example.imageloader.loader.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A W-TinyLFU cache. New entries go into a small LRU window of 1% of the
+ * size. What falls out of the window only stays if the {@link FrequencySketch}
+ * says it was accessed more often recently than the entry the main region
+ * would have to evict for it. The main region is a segmented LRU: entries hit
+ * a second time move from its probation part to its protected part, which
+ * takes up to 80% of it.
+ * <p>
+ * A fling through a long list shows many images once. They pass through the
+ * window and are rejected by the filter, while the images shown on every
+ * screen keep their high counts and stay cached.
+ */
+public class TinyLfuMemoryCache<K, V> extends MemoryCache<K, V> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final HashMap<K, Node<K, V>> mMap = new HashMap<K, Node<K, V>>();
+    private final FrequencySketch mSketch = new FrequencySketch(256);
+    private final Queue<K, V> mWindow = new Queue<K, V>();
+    private final Queue<K, V> mProbation = new Queue<K, V>();
+    private final Queue<K, V> mProtected = new Queue<K, V>();
+    private int mMaxWindowSize;
+    private int mMaxProtectedSize;
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int size;
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A doubly linked list through the nodes, least recently used first.
+     */
+    private static final class Queue<K, V> {
+        final Node<K, V> head = new Node<K, V>(null, null, 0);
+        int size;
+
+        Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node<K, V> first() {
+            return head.next != head ? head.next : null;
+        }
+
+        Node<K, V> next(Node<K, V> node) {
+            return node.next != head ? node.next : null;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size += node.size;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size -= node.size;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    public TinyLfuMemoryCache(int maxSize) {
+        super(maxSize);
+        onResize(maxSize);
+    }
+
+    @Override
+    void onResize(int maxSize) {
+        mMaxWindowSize = Math.max(1, (int) ((long) maxSize * WINDOW_PERCENT / 100));
+        mMaxProtectedSize = (int) ((long) (maxSize - mMaxWindowSize) * PROTECTED_PERCENT / 100);
+        // the parts shrink to their new sizes as entries are accessed and evicted
+    }
+
+    @Override
+    public V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        synchronized (this) {
+            mSketch.increment(key.hashCode());
+            Node<K, V> node = mMap.get(key);
+            if (node == null) {
+                mMissCount++;
+                return null;
+            }
+            mHitCount++;
+            onAccess(node);
+            return node.value;
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous = null;
+        ArrayList<Node<K, V>> evicted = new ArrayList<Node<K, V>>();
+        synchronized (this) {
+            int size = safeSizeOf(key, value);
+            mSketch.increment(key.hashCode());
+            Node<K, V> node = mMap.get(key);
+            if (node != null) {
+                previous = node.value;
+                Queue<K, V> queue = queueOf(node);
+                queue.remove(node);
+                mSize += size - node.size;
+                node.value = value;
+                node.size = size;
+                queue.addLast(node);
+                onAccess(node);
+            } else {
+                node = new Node<K, V>(key, value, size);
+                node.queue = WINDOW;
+                mMap.put(key, node);
+                mWindow.addLast(node);
+                mSize += size;
+                if (mMap.size() > mSketch.capacity()) {
+                    mSketch.ensureCapacity(2 * mMap.size());
+                }
+            }
+            if (size > maxSize()) {
+                // could never fit next to anything else
+                evict(node, evicted);
+            }
+            evictEntries(evicted);
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return previous;
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node<K, V> node;
+        synchronized (this) {
+            node = mMap.remove(key);
+            if (node == null) {
+                return null;
+            }
+            queueOf(node).remove(node);
+            mSize -= node.size;
+        }
+        entryRemoved(false, key, node.value, null);
+        return node.value;
+    }
+
+    /**
+     * Drops entries of the probation part first, then of the window and last
+     * of the protected part, each least recently used first.
+     */
+    @Override
+    public void trimToSize(int maxSize) {
+        ArrayList<Node<K, V>> evicted = new ArrayList<Node<K, V>>();
+        synchronized (this) {
+            while (mSize > maxSize) {
+                Node<K, V> node = mProbation.first();
+                if (node == null) {
+                    node = mWindow.first();
+                }
+                if (node == null) {
+                    node = mProtected.first();
+                }
+                if (node == null) {
+                    break;
+                }
+                evict(node, evicted);
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    private void onAccess(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                mWindow.moveToLast(node);
+                break;
+            case PROBATION:
+                mProbation.remove(node);
+                node.queue = PROTECTED;
+                mProtected.addLast(node);
+                // demote the least recently used protected entries to probation
+                Node<K, V> demoted;
+                while (mProtected.size > mMaxProtectedSize
+                        && (demoted = mProtected.first()) != node) {
+                    mProtected.remove(demoted);
+                    demoted.queue = PROBATION;
+                    mProbation.addLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                mProtected.moveToLast(node);
+                break;
+        }
+    }
+
+    /**
+     * Moves the entries that overflow the window to the probation part and
+     * lets each of them compete with the probation entry that would be
+     * evicted next, until the cache fits into its max size again.
+     */
+    private void evictEntries(ArrayList<Node<K, V>> evicted) {
+        Node<K, V> candidate = null;
+        Node<K, V> node;
+        while (mWindow.size > mMaxWindowSize && (node = mWindow.first()) != null) {
+            mWindow.remove(node);
+            node.queue = PROBATION;
+            mProbation.addLast(node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        while (mSize > maxSize()) {
+            Node<K, V> victim = mProbation.first();
+            if (victim == candidate) {
+                // the probation part holds nothing but candidates
+                victim = null;
+            }
+            if (victim == null) {
+                victim = mProtected.first();
+            }
+            if (candidate == null) {
+                if (victim == null) {
+                    victim = mWindow.first();
+                }
+                if (victim == null) {
+                    break;
+                }
+                evict(victim, evicted);
+            } else if (victim != null && mSketch.frequency(candidate.key.hashCode())
+                    > mSketch.frequency(victim.key.hashCode())) {
+                evict(victim, evicted);
+            } else {
+                Node<K, V> next = mProbation.next(candidate);
+                evict(candidate, evicted);
+                candidate = next;
+            }
+        }
+    }
+
+    private void evict(Node<K, V> node, ArrayList<Node<K, V>> evicted) {
+        queueOf(node).remove(node);
+        mMap.remove(node.key);
+        mSize -= node.size;
+        mEvictionCount++;
+        evicted.add(node);
+    }
+
+    private void notifyEvicted(ArrayList<Node<K, V>> evicted) {
+        for (Node<K, V> node : evicted) {
+            entryRemoved(true, node.key, node.value, null);
+        }
+    }
+
+    private Queue<K, V> queueOf(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return mWindow;
+            case PROBATION:
+                return mProbation;
+            default:
+                return mProtected;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    @Override
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.imageloader.loader.metrics;
+
+/**
+ * The events and byte counts {@link LoaderMetrics} adds up.
+ */
+public enum Counter {
+    /** load() found the bitmap in memory. */
+    MEMORY_HIT,
+    MEMORY_MISS,
+    /** A load found the encoded image in the off-heap tier, no disk read needed. */
+    ENCODED_HIT,
+    /** A load found a fresh image in the disk cache. */
+    DISK_HIT,
+    /** A load went to the network, for a missing or a stale entry. */
+    DISK_MISS,
+    /** A stale entry was revalidated with a 304. */
+    NOT_MODIFIED,
+    /** A download failed. */
+    NETWORK_FAILURE,
+    /** Body bytes read from the network. */
+    BYTES_DOWNLOADED,
+    /** Encoded bytes handed to the decoder. */
+    BYTES_DECODED,
+    /** Bytes of the bitmaps decoded. */
+    BITMAP_BYTES
+}
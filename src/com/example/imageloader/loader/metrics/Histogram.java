@@ -0,0 +1,128 @@
+package com.example.imageloader.loader.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative values in log-linear buckets, like HdrHistogram with
+ * one significant digit: every power of two is split into
+ * {@link #SUB_BUCKETS} buckets, so a percentile is off by at most 1/16 of
+ * its value. Recording is lock-free and never allocates, a few atomic adds.
+ * <p>
+ * Values are nanoseconds or bytes; anything above 2^{@link #MAX_EXPONENT}
+ * lands in the last bucket.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^44 ns is almost 5 hours
+    private static final int MAX_EXPONENT = 44;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(indexOf(value));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The middle of the values bucket {@code index} counts.
+     */
+    private static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowest = ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+        return lowest + ((1L << shift) >> 1);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getTotal() {
+        return mTotal.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotal.get() / count;
+    }
+
+    /**
+     * Returns the value {@code percentile} percent of the recorded values
+     * are at or below, e.g. 99 for the p99.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Returns a copy of the values recorded so far and, if {@code reset},
+     * starts over. A value recorded during the call ends up in either the
+     * copy or the next interval, but its count, total and bucket may be
+     * split between them.
+     */
+    public Histogram snapshot(boolean reset) {
+        Histogram copy = new Histogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            long value = reset ? mBuckets.getAndSet(i, 0) : mBuckets.get(i);
+            if (value != 0) {
+                copy.mBuckets.set(i, value);
+            }
+        }
+        copy.mCount.set(reset ? mCount.getAndSet(0) : mCount.get());
+        copy.mTotal.set(reset ? mTotal.getAndSet(0) : mTotal.get());
+        copy.mMax.set(reset ? mMax.getAndSet(0) : mMax.get());
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMean()
+                + " p50=" + getValueAtPercentile(50) + " p90=" + getValueAtPercentile(90)
+                + " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+    }
+}
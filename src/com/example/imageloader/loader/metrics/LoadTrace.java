@@ -0,0 +1,105 @@
+package com.example.imageloader.loader.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timings of one load, handed to {@link LoaderMetrics.Listener} when it
+ * finished. A load serves every request of its url, so the delivery covers
+ * the posts to all their views.
+ * <p>
+ * The stages of a load run one after the other on different threads, the
+ * hand-off between them publishes what the previous stage added.
+ */
+public final class LoadTrace {
+    private static final Timing[] TIMINGS = Timing.values();
+
+    private final String mUrl;
+    private final long mStartTime = System.nanoTime();
+    private final long[] mNanos = new long[TIMINGS.length];
+    private boolean mFromNetwork;
+    private boolean mSuccessful;
+    private long mPostTime;
+    private final AtomicInteger mPendingDeliveries = new AtomicInteger();
+
+    public LoadTrace(String url) {
+        mUrl = url;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Returns the time spent in {@code timing}, 0 if the load never got there.
+     */
+    public long getNanos(Timing timing) {
+        return mNanos[timing.ordinal()];
+    }
+
+    public boolean isFromNetwork() {
+        return mFromNetwork;
+    }
+
+    /**
+     * True if the load decoded a bitmap, which prefetches for the disk cache
+     * never do.
+     */
+    public boolean isSuccessful() {
+        return mSuccessful;
+    }
+
+    public void add(Timing timing, long nanos) {
+        mNanos[timing.ordinal()] += nanos;
+    }
+
+    public void setFromNetwork() {
+        mFromNetwork = true;
+    }
+
+    public void setSuccessful(boolean successful) {
+        mSuccessful = successful;
+    }
+
+    /**
+     * Called right before {@code posts} deliveries go to the main thread,
+     * each of which calls {@link #endDelivery()}.
+     */
+    public void beginDelivery(int posts) {
+        mPostTime = System.nanoTime();
+        mPendingDeliveries.set(posts);
+    }
+
+    /**
+     * @return true for the last delivery, the trace is complete then
+     */
+    public boolean endDelivery() {
+        if (mPendingDeliveries.decrementAndGet() != 0) {
+            return false;
+        }
+        mNanos[Timing.DELIVERY.ordinal()] = System.nanoTime() - mPostTime;
+        complete();
+        return true;
+    }
+
+    /**
+     * Ends the trace of a load that delivers nothing.
+     */
+    public void complete() {
+        mNanos[Timing.TOTAL.ordinal()] = System.nanoTime() - mStartTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LoadTrace[").append(mUrl);
+        for (Timing timing : TIMINGS) {
+            long nanos = mNanos[timing.ordinal()];
+            if (nanos > 0) {
+                sb.append(',').append(timing.name().toLowerCase(Locale.US)).append('=')
+                        .append(nanos / 1000).append("us");
+            }
+        }
+        return sb.append(mFromNetwork ? ",network" : "").append(mSuccessful ? "" : ",failed")
+                .append(']').toString();
+    }
+}
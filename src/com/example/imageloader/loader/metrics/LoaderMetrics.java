@@ -0,0 +1,145 @@
+package com.example.imageloader.loader.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of an {@link com.example.imageloader.loader.ImageLoader},
+ * cheap enough to stay on in production: a load adds a few
+ * {@link System#nanoTime()} calls and atomic adds, and nothing allocates
+ * except its {@link LoadTrace}.
+ * <p>
+ * Dashboards either take a {@link #snapshot(boolean)} per interval or get
+ * every finished load through a {@link Listener}.
+ */
+public class LoaderMetrics {
+    /**
+     * Gets every finished load. Called on the thread that finished it, a
+     * pipeline thread or the main thread, so it must return quickly.
+     */
+    public interface Listener {
+        void onLoadFinished(LoadTrace trace);
+    }
+
+    private static final Timing[] TIMINGS = Timing.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private volatile boolean mEnabled = true;
+    private final Histogram[] mHistograms = new Histogram[TIMINGS.length];
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS.length);
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+    public LoaderMetrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long delta) {
+        if (mEnabled) {
+            mCounters.addAndGet(counter.ordinal(), delta);
+        }
+    }
+
+    /**
+     * Records a completed load into the histograms of the phases it went
+     * through and passes it on to the listeners.
+     */
+    public void record(LoadTrace trace) {
+        if (!mEnabled) {
+            return;
+        }
+        for (Timing timing : TIMINGS) {
+            long nanos = trace.getNanos(timing);
+            if (nanos > 0) {
+                mHistograms[timing.ordinal()].record(nanos);
+            }
+        }
+        for (Listener listener : mListeners) {
+            listener.onLoadFinished(trace);
+        }
+    }
+
+    /**
+     * Returns the metrics so far and, if {@code reset}, starts a new
+     * interval.
+     */
+    public Snapshot snapshot(boolean reset) {
+        Histogram[] histograms = new Histogram[TIMINGS.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = mHistograms[i].snapshot(reset);
+        }
+        long[] counts = new long[COUNTERS.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = reset ? mCounters.getAndSet(i, 0) : mCounters.get(i);
+        }
+        return new Snapshot(histograms, counts);
+    }
+
+    public static final class Snapshot {
+        private final Histogram[] mHistograms;
+        private final long[] mCounts;
+
+        Snapshot(Histogram[] histograms, long[] counts) {
+            mHistograms = histograms;
+            mCounts = counts;
+        }
+
+        public Histogram getHistogram(Timing timing) {
+            return mHistograms[timing.ordinal()];
+        }
+
+        public long getCount(Counter counter) {
+            return mCounts[counter.ordinal()];
+        }
+
+        public float getMemoryHitRatio() {
+            return ratio(getCount(Counter.MEMORY_HIT), getCount(Counter.MEMORY_MISS));
+        }
+
+        public float getDiskHitRatio() {
+            return ratio(getCount(Counter.DISK_HIT), getCount(Counter.DISK_MISS));
+        }
+
+        private static float ratio(long hits, long misses) {
+            return hits + misses == 0 ? 0 : (float) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("memoryHitRatio=").append(getMemoryHitRatio())
+                    .append(" diskHitRatio=").append(getDiskHitRatio()).append('\n');
+            for (Counter counter : COUNTERS) {
+                sb.append(counter.name().toLowerCase(Locale.US)).append('=')
+                        .append(getCount(counter)).append('\n');
+            }
+            for (Timing timing : TIMINGS) {
+                sb.append(timing.name().toLowerCase(Locale.US)).append(": ")
+                        .append(getHistogram(timing)).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.imageloader.loader.metrics;
+
+/**
+ * The phases of a load that {@link LoaderMetrics} times, in nanoseconds.
+ */
+public enum Timing {
+    /** Waiting in the queues of the pipeline stages, summed over all of them. */
+    QUEUE_WAIT,
+    /** Looking up and reading the disk cache. */
+    DISK,
+    /** From sending the request to the response headers. */
+    TIME_TO_FIRST_BYTE,
+    /** Reading the response body. */
+    DOWNLOAD,
+    /** Decoding the encoded image. */
+    DECODE,
+    /** Running the processor chain. */
+    PROCESS,
+    /** From posting the bitmap to the main thread until the views have it. */
+    DELIVERY,
+    /** From the start of the load until the views have the bitmap. */
+    TOTAL
+}
@@ -0,0 +1,45 @@
+package com.example.imageloader.loader.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Gets the bytes of an image url for the network stage of
+ * {@link com.example.imageloader.loader.ImageLoader}. The default is
+ * {@link HttpUrlConnectionFetcher}; a fetcher on top of an http client that
+ * speaks HTTP/2 multiplexes all requests to a host over one connection and
+ * only has to implement this interface.
+ * <p>
+ * Implementations are called from several network threads at once.
+ */
+public interface Fetcher {
+    /**
+     * The answer to a request. Closing it releases the connection, for
+     * reuse if the body was read to its end.
+     */
+    interface Response extends Closeable {
+        int getCode();
+
+        /**
+         * Returns the value of header {@code name}, or null.
+         */
+        String getHeader(String name);
+
+        /**
+         * The body. Reads fail once the deadline of the request passed.
+         */
+        InputStream getBody() throws IOException;
+    }
+
+    /**
+     * Sends a GET for {@code url}. The response may have any status, the
+     * caller checks it and closes the response.
+     *
+     * @param etag sent as If-None-Match, may be null
+     * @param lastModified sent as If-Modified-Since, may be null
+     * @throws HostBusyException if the fetcher limits the requests per host
+     *     and the host of {@code url} has no free slot
+     */
+    Response fetch(String url, String etag, String lastModified) throws IOException;
+}
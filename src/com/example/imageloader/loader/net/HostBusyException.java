@@ -0,0 +1,24 @@
+package com.example.imageloader.loader.net;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link Fetcher#fetch} instead of waiting when the host of the
+ * url already has as many requests running as the fetcher allows. Nothing
+ * was sent; the caller may retry once one of the running requests to the
+ * host was closed.
+ */
+public class HostBusyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String mHost;
+
+    public HostBusyException(String host) {
+        super("no free connection to " + host);
+        mHost = host;
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+}
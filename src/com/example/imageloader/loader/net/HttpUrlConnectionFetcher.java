@@ -0,0 +1,271 @@
+package com.example.imageloader.loader.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches over {@link HttpURLConnection} with keep-alive connections.
+ * <ul>
+ * <li>Connections are reused through the platform pool, which keeps idle
+ * connections per host. A response hands its connection back once its body
+ * was read to the end and closed; a response dropped halfway disconnects,
+ * the rest of its body is not worth reading.</li>
+ * <li>Every request has a deadline covering connect, response and body. A
+ * watchdog disconnects the request when it passes, so a host that stops
+ * sending in the middle of a body frees the thread at the deadline instead
+ * of after a read timeout per stalled read.</li>
+ * <li>At most {@code maxRequestsPerHost} requests run against one host.
+ * Another one fails at once with {@link HostBusyException} instead of
+ * waiting for a slot in the calling thread, so the caller can park it and
+ * one slow host cannot occupy every network thread.</li>
+ * <li>A request that fails before any of its body was read is retried once
+ * if the deadline allows, which hides most dropped keep-alive connections
+ * and flaky connects.</li>
+ * </ul>
+ */
+public class HttpUrlConnectionFetcher implements Fetcher {
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 10 * 1000;
+    private static final int DEFAULT_DEADLINE_MS = 30 * 1000;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    private static final int MAX_ATTEMPTS = 2;
+
+    private static final ScheduledThreadPoolExecutor sWatchdog = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "fetcher-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final int mConnectTimeoutMs;
+    private final int mReadTimeoutMs;
+    private final int mDeadlineMs;
+    private final int mMaxRequestsPerHost;
+    private final ConcurrentHashMap<String, Semaphore> mHostSlots = new ConcurrentHashMap<String, Semaphore>();
+
+    public HttpUrlConnectionFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_DEADLINE_MS,
+                DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param connectTimeoutMs limit of one connect
+     * @param readTimeoutMs limit of one read of the response or body
+     * @param deadlineMs limit of a whole request including its body
+     * @param maxRequestsPerHost requests running against one host at once
+     */
+    public HttpUrlConnectionFetcher(int connectTimeoutMs, int readTimeoutMs, int deadlineMs,
+            int maxRequestsPerHost) {
+        if (connectTimeoutMs <= 0 || readTimeoutMs <= 0 || deadlineMs <= 0) {
+            throw new IllegalArgumentException("timeouts must be > 0");
+        }
+        if (maxRequestsPerHost <= 0) {
+            throw new IllegalArgumentException("maxRequestsPerHost <= 0");
+        }
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+        mDeadlineMs = deadlineMs;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        // the platform pool keeps 5 idle connections per host by default, keep one per slot
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(maxRequestsPerHost));
+        }
+    }
+
+    @Override
+    public Response fetch(String url, String etag, String lastModified) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mDeadlineMs);
+        URL uri = new URL(url);
+        Semaphore slots = getHostSlots(uri.getHost());
+        if (!slots.tryAcquire()) {
+            throw new HostBusyException(uri.getHost());
+        }
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && remainingMs(deadline) > 0; attempt++) {
+            try {
+                return open(uri, etag, lastModified, deadline, slots);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        slots.release();
+        throw failure != null ? failure : new SocketTimeoutException("deadline exceeded for " + url);
+    }
+
+    private Semaphore getHostSlots(String host) {
+        Semaphore slots = mHostSlots.get(host);
+        if (slots == null) {
+            Semaphore created = new Semaphore(mMaxRequestsPerHost);
+            slots = mHostSlots.putIfAbsent(host, created);
+            if (slots == null) {
+                slots = created;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Sends one attempt. On success the response owns the host slot.
+     */
+    private Response open(URL url, String etag, String lastModified, long deadline,
+            Semaphore slots) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int remaining = (int) Math.max(1, remainingMs(deadline));
+        connection.setConnectTimeout(Math.min(mConnectTimeoutMs, remaining));
+        connection.setReadTimeout(Math.min(mReadTimeoutMs, remaining));
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        ScheduledFuture<?> watchdog = sWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // unblocks a read stuck in the socket
+                connection.disconnect();
+            }
+        }, remaining, TimeUnit.MILLISECONDS);
+        try {
+            connection.getResponseCode();
+        } catch (IOException e) {
+            cancelWatchdog(watchdog);
+            connection.disconnect();
+            throw e;
+        }
+        return new ConnectionResponse(connection, watchdog, slots, deadline);
+    }
+
+    private static void cancelWatchdog(ScheduledFuture<?> watchdog) {
+        watchdog.cancel(false);
+        // a cancelled task would stay queued until its deadline, holding on to its connection
+        sWatchdog.remove((Runnable) watchdog);
+    }
+
+    private static long remainingMs(long deadline) {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    private static final class ConnectionResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private final ScheduledFuture<?> mWatchdog;
+        private final Semaphore mSlots;
+        private final long mDeadline;
+        private DeadlineInputStream mBody;
+        private boolean mClosed;
+
+        ConnectionResponse(HttpURLConnection connection, ScheduledFuture<?> watchdog,
+                Semaphore slots, long deadline) {
+            mConnection = connection;
+            mWatchdog = watchdog;
+            mSlots = slots;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public int getCode() {
+            try {
+                return mConnection.getResponseCode();
+            } catch (IOException e) {
+                // already read by open()
+                return -1;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream in = getCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getInputStream() : mConnection.getErrorStream();
+                mBody = new DeadlineInputStream(in, mDeadline);
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            cancelWatchdog(mWatchdog);
+            try {
+                if (mBody != null && mBody.isExhausted()) {
+                    // hands the connection back to the pool
+                    mBody.close();
+                } else {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+            } finally {
+                mSlots.release();
+            }
+        }
+    }
+
+    /**
+     * Fails reads once the deadline passed and remembers whether the body
+     * was read to its end.
+     */
+    private static final class DeadlineInputStream extends FilterInputStream {
+        private final long mDeadline;
+        private boolean mExhausted;
+
+        DeadlineInputStream(InputStream in, long deadline) {
+            super(in);
+            mDeadline = deadline;
+        }
+
+        boolean isExhausted() {
+            return mExhausted || in == null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkDeadline();
+            int b = in != null ? in.read() : -1;
+            mExhausted |= b == -1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkDeadline();
+            int read = in != null ? in.read(buffer, offset, count) : -1;
+            mExhausted |= read == -1;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        private void checkDeadline() throws SocketTimeoutException {
+            if (System.nanoTime() - mDeadline > 0) {
+                throw new SocketTimeoutException("deadline exceeded");
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.imageloader.loader.processor;
+
+import com.example.imageloader.loader.BitmapPool;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+/**
+ * Scales the image so it covers {@code width} x {@code height} and crops the
+ * part that sticks out on either side, like ImageView.ScaleType.CENTER_CROP.
+ */
+public class CenterCropProcessor extends ImageProcessor {
+    private final int mWidth;
+    private final int mHeight;
+
+    public CenterCropProcessor(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    @Override
+    public Bitmap process(Bitmap source) {
+        return process(source, null);
+    }
+
+    @Override
+    public Bitmap process(Bitmap source, BitmapPool pool) {
+        int srcWidth = source.getWidth();
+        int srcHeight = source.getHeight();
+        if (srcWidth == mWidth && srcHeight == mHeight) {
+            return source;
+        }
+        float scale;
+        float dx = 0;
+        float dy = 0;
+        if (srcWidth * mHeight > mWidth * srcHeight) {
+            scale = (float) mHeight / srcHeight;
+            dx = (mWidth - srcWidth * scale) * 0.5f;
+        } else {
+            scale = (float) mWidth / srcWidth;
+            dy = (mHeight - srcHeight * scale) * 0.5f;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((int) (dx + 0.5f), (int) (dy + 0.5f));
+
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap result = createBitmap(pool, mWidth, mHeight, config);
+        Canvas canvas = new Canvas(result);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG));
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "centerCrop(" + mWidth + "," + mHeight + ")";
+    }
+
+    @Override
+    public int getDecodeWidth(int reqWidth) {
+        return mWidth;
+    }
+
+    @Override
+    public int getDecodeHeight(int reqHeight) {
+        return mHeight;
+    }
+}
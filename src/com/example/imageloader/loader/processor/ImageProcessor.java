@@ -1,9 +1,56 @@
 package com.example.imageloader.loader.processor;
 
-import java.io.InputStream;
+import com.example.imageloader.loader.BitmapPool;
 
 import android.graphics.Bitmap;
 
+/**
+ * One step of a {@link ProcessorChain}.
+ */
 public abstract class ImageProcessor {
-    public abstract Bitmap process(InputStream is);
+    /**
+     * Transforms {@code source}. Return {@code source} itself if nothing had
+     * to change; a new bitmap replaces it and the chain recycles the source.
+     */
+    public abstract Bitmap process(Bitmap source);
+
+    /**
+     * Like {@link #process(Bitmap)}, but may draw a new result into a bitmap
+     * of {@code pool}, which can be null. The built-in processors do, the
+     * default ignores the pool.
+     */
+    public Bitmap process(Bitmap source, BitmapPool pool) {
+        return process(source);
+    }
+
+    /**
+     * Identifies this processor and its parameters. Processed images are cached
+     * under the keys of their chain, so two processors producing different
+     * output must never share a key.
+     */
+    public abstract String getKey();
+
+    /**
+     * Returns a mutable bitmap to draw a result into, taken from {@code pool}
+     * if there is one.
+     */
+    protected static Bitmap createBitmap(BitmapPool pool, int width, int height,
+            Bitmap.Config config) {
+        if (pool != null) {
+            return pool.obtain(width, height, config);
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Lets the first processor of a chain pick the size the source is decoded
+     * for, e.g. a resize only needs the image sampled down to its own size.
+     */
+    public int getDecodeWidth(int reqWidth) {
+        return reqWidth;
+    }
+
+    public int getDecodeHeight(int reqHeight) {
+        return reqHeight;
+    }
 }
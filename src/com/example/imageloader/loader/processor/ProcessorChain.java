@@ -0,0 +1,85 @@
+package com.example.imageloader.loader.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.example.imageloader.loader.BitmapPool;
+
+import android.graphics.Bitmap;
+
+/**
+ * An immutable list of processors applied one after the other, each to the
+ * result of the previous one.
+ */
+public final class ProcessorChain {
+    public static final ProcessorChain EMPTY = new ProcessorChain(new ArrayList<ImageProcessor>());
+
+    private final List<ImageProcessor> mProcessors;
+    private final String mKey;
+
+    private ProcessorChain(List<ImageProcessor> processors) {
+        mProcessors = Collections.unmodifiableList(processors);
+        StringBuilder sb = new StringBuilder();
+        for (ImageProcessor processor : processors) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append(processor.getKey());
+        }
+        mKey = sb.toString();
+    }
+
+    /**
+     * Returns a new chain that runs {@code processor} after the processors of
+     * this one.
+     */
+    public ProcessorChain append(ImageProcessor processor) {
+        ArrayList<ImageProcessor> processors = new ArrayList<ImageProcessor>(mProcessors);
+        processors.add(processor);
+        return new ProcessorChain(processors);
+    }
+
+    public boolean isEmpty() {
+        return mProcessors.isEmpty();
+    }
+
+    /**
+     * The keys of all processors in order, empty for the empty chain.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    public int getDecodeWidth(int reqWidth) {
+        return isEmpty() ? reqWidth : mProcessors.get(0).getDecodeWidth(reqWidth);
+    }
+
+    public int getDecodeHeight(int reqHeight) {
+        return isEmpty() ? reqHeight : mProcessors.get(0).getDecodeHeight(reqHeight);
+    }
+
+    public Bitmap process(Bitmap source) {
+        return process(source, null);
+    }
+
+    /**
+     * Runs all processors. Intermediate bitmaps, including {@code source} once
+     * it was replaced, go to {@code pool} or are recycled, so the caller must
+     * not use {@code source} afterwards unless it is returned.
+     */
+    public Bitmap process(Bitmap source, BitmapPool pool) {
+        Bitmap bmp = source;
+        for (ImageProcessor processor : mProcessors) {
+            Bitmap result = processor.process(bmp, pool);
+            if (result != bmp && (pool == null || !pool.put(bmp))) {
+                bmp.recycle();
+            }
+            bmp = result;
+            if (bmp == null) {
+                break;
+            }
+        }
+        return bmp;
+    }
+}
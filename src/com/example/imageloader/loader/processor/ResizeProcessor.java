@@ -1,9 +1,16 @@
 package com.example.imageloader.loader.processor;
 
-import java.io.InputStream;
+import com.example.imageloader.loader.BitmapPool;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 
+/**
+ * Scales the image to exactly {@code reqWidth} x {@code reqHeight}. As first
+ * processor of a chain it also decodes the source sampled for that size.
+ */
 public class ResizeProcessor extends ImageProcessor {
     private int mWidth;
     private int mHeight;
@@ -13,7 +20,35 @@ public class ResizeProcessor extends ImageProcessor {
     }
 
     @Override
-    public Bitmap process(InputStream is) {
-        return null;
+    public Bitmap process(Bitmap source) {
+        return process(source, null);
+    }
+
+    @Override
+    public Bitmap process(Bitmap source, BitmapPool pool) {
+        if (source.getWidth() == mWidth && source.getHeight() == mHeight) {
+            return source;
+        }
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap result = createBitmap(pool, mWidth, mHeight, config);
+        Canvas canvas = new Canvas(result);
+        canvas.drawBitmap(source, null, new Rect(0, 0, mWidth, mHeight),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "resize(" + mWidth + "," + mHeight + ")";
+    }
+
+    @Override
+    public int getDecodeWidth(int reqWidth) {
+        return mWidth;
+    }
+
+    @Override
+    public int getDecodeHeight(int reqHeight) {
+        return mHeight;
     }
 }
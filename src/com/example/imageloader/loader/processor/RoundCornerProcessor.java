@@ -0,0 +1,44 @@
+package com.example.imageloader.loader.processor;
+
+import com.example.imageloader.loader.BitmapPool;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * Clips the image to a rectangle with corners of {@code radius} pixels. The
+ * result always has an alpha channel.
+ */
+public class RoundCornerProcessor extends ImageProcessor {
+    private final float mRadius;
+
+    public RoundCornerProcessor(float radius) {
+        mRadius = radius;
+    }
+
+    @Override
+    public Bitmap process(Bitmap source) {
+        return process(source, null);
+    }
+
+    @Override
+    public Bitmap process(Bitmap source, BitmapPool pool) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Bitmap result = createBitmap(pool, width, height, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        Canvas canvas = new Canvas(result);
+        canvas.drawRoundRect(new RectF(0, 0, width, height), mRadius, mRadius, paint);
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "roundCorner(" + mRadius + ")";
+    }
+}